@@ -33,6 +33,23 @@ public class Config {
 		allProperties.setProperty(key, value);
 	}
 
+	/**
+	 * Get all properties whose key starts with a prefix, keyed by the rest of the key.
+	 * 
+	 * @param prefix
+	 * @return
+	 */
+	public Map<String, String> getPropertiesWithPrefix(final String prefix) {
+
+		final Map<String, String> result = new HashMap<String, String>();
+		for (final String key : allProperties.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				result.put(key.substring(prefix.length()), allProperties.getProperty(key));
+			}
+		}
+		return result;
+	}
+
 	private static void loadProperties(final Properties prop, final String sProperties) {
 
 		try {
@@ -2,15 +2,16 @@ package com.netdimen.buganalysis.controller;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.search.TopDocs;
 
 import com.google.common.collect.Lists;
 import com.netdimen.buganalysis.config.Config;
 import com.netdimen.buganalysis.utils.ClassifierUtils;
+import com.netdimen.buganalysis.utils.CoverageUtils;
 import com.netdimen.buganalysis.utils.DataUtils;
 import com.netdimen.buganalysis.utils.DocumentUtils;
 import com.netdimen.buganalysis.utils.POIUtils;
@@ -100,20 +101,12 @@ public class TestDriver {
 
 		final DecimalFormat df = new DecimalFormat("0.000");
 
-		final BitSet coveredDocs = new BitSet();
+		final int[] newCoverage = CoverageUtils.getNewCoverage(field, termList);
 		int coverage = 0;
 		for (int j = 0; j < termList.size(); j++) {
 			final String term = termList.get(j);
-			final TopDocs docs = SearchEngineUtils.search(field, term, totalDocs);
-			int coverageContribution = 0;
-			for (int i = 0; i < docs.scoreDocs.length; i++) {
-				final int docId = docs.scoreDocs[i].doc;
-				if (coveredDocs.get(docId) == false) {
-					coverageContribution++;
-					coverage++;
-					coveredDocs.set(docId, true);
-				}
-			}
+			final int coverageContribution = newCoverage[j];
+			coverage += coverageContribution;
 			sb.append(j + 1)
 			  .append("\t")
 			  .append(term)
@@ -138,9 +131,12 @@ public class TestDriver {
 		final String bugReportFile = Config.getInstance().getProperty("bug.analysis.report.bug.file");
 		final String keywordFile = Config.getInstance().getProperty("bug.analysis.report.keyword.file");
 
+		// with a target coverage the summary lists the fewest keywords reaching it instead of all keywords
+		final double targetCoverage = NumberUtils.toDouble(Config.getInstance().getProperty("bug.analysis.report.summary.coverage"), 0.0);
 		POIUtils.writeToExcel(Config.getInstance().getProperty("bug.analysis.report.bug.save.file"), 
 		                      Config.getInstance().getProperty("bug.analysis.report.summary.sheet"), 
-		                      SearchEngineUtils.generateSummarizedBugReport(indexField, bugReportFile, keywordFile));
+		                      targetCoverage > 0.0 ? SearchEngineUtils.generateKeywordCoverReport(indexField, bugReportFile, keywordFile, targetCoverage)
+		                                           : SearchEngineUtils.generateSummarizedBugReport(indexField, bugReportFile, keywordFile));
 		
 		POIUtils.writeToExcel(Config.getInstance().getProperty("bug.analysis.report.bug.save.file"), 
 		                      Config.getInstance().getProperty("bug.analysis.report.details.sheet"), 
@@ -164,6 +160,59 @@ public class TestDriver {
 		ins.getDocumentSimilarityBasedOnTermVector(field, docNum);
 	}
 
+	/**
+	 * Find near-duplicate bug reports: all pairs whose subjects have a cosine similarity of at least
+	 * "bug.analysis.similarity.threshold".
+	 * 
+	 */
+	public static void getSimilarDocuments() {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		final double threshold = NumberUtils.toDouble(Config.getInstance().getProperty("bug.analysis.similarity.threshold"), 0.8);
+		ins.getSimilarDocuments(field, threshold);
+	}
+
+	/**
+	 * Group likely duplicate bug reports by the MinHash signatures of their subjects, or list the likely duplicates of
+	 * a new title if one is given.
+	 * 
+	 * @param title
+	 *            : may be null
+	 */
+	public static void getDuplicates(final String title) {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		if (title == null) {
+			ins.getDuplicateGroups(field);
+		} else {
+			ins.findDuplicates(field, title);
+		}
+	}
+
+	/**
+	 * Find the bugs most similar to a ticket, by the terms of its subject.
+	 * 
+	 * @param ticketId
+	 */
+	public static void getSimilarBugs(final String ticketId) {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		final int k = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.topk"), 10);
+		final long start = System.currentTimeMillis();
+		final TopDocs docs = ins.getSimilarBugs(field, ticketId, k);
+		System.out.println(">>>Similar bugs of " + ticketId + " found in " + (System.currentTimeMillis() - start) + "ms");
+		if (docs != null) {
+			final ArrayList<String> fields = Lists.newArrayList(SearchEngineUtils.ID_FIELD, field);
+			SearchEngineUtils.showSearchResult(docs, fields, new StringBuilder());
+		}
+	}
+
 	/**
 	 * Pairwise analyze Top-N terms to find out bug distributions. The result is reported with confusion matrix.
 	 * 
@@ -180,6 +229,76 @@ public class TestDriver {
 		ins.getPairwiseAnalysisBasedOnTerms(field, topTerms);
 	}
 
+	/**
+	 * Find the bugs nearest to a ticket in the projected TF-IDF space.
+	 * 
+	 * @param ticketId
+	 */
+	public static void getNearestBugs(final String ticketId) {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		final int k = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.topk"), 10);
+		// map the graph before the clock starts, so that the time printed is the search alone
+		SimilarityUtils.getVectorIndex(field);
+		final long start = System.nanoTime();
+		final TopDocs docs = ins.getNearestDocuments(field, ticketId, k);
+		System.out.println(">>>Nearest bugs of " + ticketId + " found in " + (System.nanoTime() - start) / 1000 + "us");
+		if (docs != null) {
+			final ArrayList<String> fields = Lists.newArrayList(SearchEngineUtils.ID_FIELD, field);
+			SearchEngineUtils.showSearchResult(docs, fields, new StringBuilder());
+		}
+	}
+
+	/**
+	 * Find the bugs nearest to a subject that is not indexed yet, e.g. while it is being typed.
+	 * 
+	 * @param subject
+	 */
+	public static void findNearestBugs(final String subject) {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		final int k = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.topk"), 10);
+		// map the graph before the clock starts, so that the time printed is the search alone
+		SimilarityUtils.getVectorIndex(field);
+		final long start = System.nanoTime();
+		final TopDocs docs = ins.findNearestDocuments(field, subject, k);
+		System.out.println(">>>Nearest bugs of \"" + subject + "\" found in " + (System.nanoTime() - start) / 1000 + "us");
+		if (docs != null) {
+			final ArrayList<String> fields = Lists.newArrayList(SearchEngineUtils.ID_FIELD, field);
+			SearchEngineUtils.showSearchResult(docs, fields, new StringBuilder());
+		}
+	}
+
+	/**
+	 * Cluster bug reports by the terms of their subjects.
+	 * 
+	 */
+	public static void getClusters() {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		ins.getClusters(field);
+	}
+
+	/**
+	 * Co-occurrence of all terms, reported as PMI of the Top-N terms.
+	 * 
+	 * @param TopN
+	 *            : Top-N terms
+	 */
+	public static void getCooccurrenceAnalysis(final int TopN) {
+
+		SearchEngineUtils.indexFile(Config.getInstance().getProperty("bug.analysis.report.bug.file"));
+		final SimilarityUtils ins = new SimilarityUtils();
+		final String field = "Subject";
+		ins.getCooccurrenceAnalysis(field, TopN);
+	}
+
 	/**
 	 * Use Naive Bayes model to auto-label bugs
 	 * 
@@ -203,6 +322,7 @@ public class TestDriver {
 		ins.genTFIDFModel(field, maxDoc);
 		ins.genTFIDFModelBasedOnLucene(field);
 		ins.genLuceneTFIDFModel(field);
+		SimilarityUtils.getTfIdfModel(field);
 	}
 
 	/**
@@ -212,6 +332,18 @@ public class TestDriver {
 	 */
 	public static void dispatcher(final int flag) {
 
+		dispatcher(flag, null);
+	}
+
+	/**
+	 * Call diff. functions based on flags
+	 * 
+	 * @param flag
+	 * @param arg
+	 *            : optional argument of the function, may be null
+	 */
+	public static void dispatcher(final int flag, final String arg) {
+
 		final int TopN;
 		switch (flag) {
 			case 1:
@@ -252,6 +384,35 @@ public class TestDriver {
 			case 9:
 				generateBugReport();
 				break;
+			case 10:
+				// 10. Near-duplicate bug reports
+				getSimilarDocuments();
+				break;
+			case 11:
+				// 11. Duplicate groups by MinHash, or duplicates of the title given as second argument
+				getDuplicates(arg);
+				break;
+			case 12:
+				// 12. Top-k similar bugs of the ticket given as second argument
+				getSimilarBugs(arg);
+				break;
+			case 13:
+				// 13. Co-occurrence of all terms: PMI
+				TopN = 20;
+				getCooccurrenceAnalysis(TopN);
+				break;
+			case 14:
+				// 14. Top-k nearest bugs of the ticket given as second argument, on projected vectors
+				getNearestBugs(arg);
+				break;
+			case 15:
+				// 15. Clusters of bug reports: k-means
+				getClusters();
+				break;
+			case 16:
+				// 16. Top-k nearest bugs of the subject given as second argument, on projected vectors
+				findNearestBugs(arg);
+				break;
 			default:
 				break;
 		}
@@ -260,9 +421,9 @@ public class TestDriver {
 	public static void main(String[] args) {
 
 		int flag = 9;
-		if (args.length == 1) {
+		if (args.length >= 1) {
 			flag = Integer.parseInt(args[0]);
 		}
-		dispatcher(flag);
+		dispatcher(flag, args.length >= 2 ? args[1] : null);
 	}
 }
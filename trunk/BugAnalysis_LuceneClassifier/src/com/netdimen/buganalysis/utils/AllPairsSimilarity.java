@@ -0,0 +1,166 @@
+package com.netdimen.buganalysis.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import com.google.common.collect.Lists;
+
+/**
+ * All-pairs cosine similarity join over a {@link DocTermMatrix} (Bayardo et al., "Scaling up all pairs similarity
+ * search", AllPairs-1). Only pairs with cosine >= threshold are returned, and only pairs sharing an indexed term are
+ * ever compared.
+ *
+ * Rows are processed in order. Each row first probes an inverted index built from the rows before it, accumulating
+ * partial dot products for every earlier row it shares an indexed term with; those candidates are then scored exactly.
+ * Afterwards the row is added to the index, but only from the point where its terms could still reach the threshold:
+ * terms are visited from most to least frequent, and as long as sum(maxweight(t) * x(t)) over the visited terms stays
+ * below the threshold, no other row can reach it through those terms alone, so they are left out. Frequent terms have
+ * the longest postings, so most of the work is pruned.
+ */
+public class AllPairsSimilarity {
+
+	/**
+	 * A pair of rows (row1 < row2) and their cosine similarity.
+	 *
+	 */
+	public static class SimilarPair {
+
+		private final int row1;
+
+		private final int row2;
+
+		private final double similarity;
+
+		SimilarPair(final int row1, final int row2, final double similarity) {
+
+			this.row1 = row1;
+			this.row2 = row2;
+			this.similarity = similarity;
+		}
+
+		public int getRow1() {
+
+			return row1;
+		}
+
+		public int getRow2() {
+
+			return row2;
+		}
+
+		public double getSimilarity() {
+
+			return similarity;
+		}
+	}
+
+	/**
+	 * Find all pairs of rows whose cosine similarity is at least threshold.
+	 *
+	 * @param matrix
+	 * @param threshold
+	 *            : (0..1]
+	 * @return pairs ordered by row2, then by row1
+	 */
+	public static List<SimilarPair> join(final DocTermMatrix matrix, final double threshold) {
+
+		final int numRows = matrix.getNumRows();
+		final int numTerms = matrix.getNumTerms();
+
+		// 1. Highest normalized weight of every term
+		final double[] maxWeights = new double[numTerms];
+		for (int row = 0; row < numRows; row++) {
+			final double norm = matrix.getNorm(row);
+			for (int k = matrix.getRowStart(row); k < matrix.getRowEnd(row); k++) {
+				final int term = matrix.getColumn(k);
+				maxWeights[term] = Math.max(maxWeights[term], matrix.getValue(k) / norm);
+			}
+		}
+
+		// 2. Visit terms from most to least frequent
+		final int[] docFreqs = matrix.getDocFreqs();
+		final long[] ranked = new long[numTerms];
+		for (int term = 0; term < numTerms; term++) {
+			ranked[term] = ((long) (Integer.MAX_VALUE - docFreqs[term]) << 32) | term;
+		}
+		Arrays.sort(ranked);
+		final int[] rank = new int[numTerms];
+		for (int r = 0; r < numTerms; r++) {
+			rank[(int) ranked[r]] = r;
+		}
+
+		// 3. Probe, then index
+		final int[][] postingRows = new int[numTerms][];
+		final float[][] postingWeights = new float[numTerms][];
+		final int[] postingSizes = new int[numTerms];
+		final double[] scores = new double[numRows];
+		final int[] candidates = new int[numRows];
+		long[] entries = new long[16];
+
+		final List<SimilarPair> pairs = Lists.newArrayList();
+		for (int row = 0; row < numRows; row++) {
+			final int start = matrix.getRowStart(row);
+			final int end = matrix.getRowEnd(row);
+			if (start == end) {
+				continue;
+			}
+			final double norm = matrix.getNorm(row);
+
+			int numCandidates = 0;
+			for (int k = start; k < end; k++) {
+				final int term = matrix.getColumn(k);
+				final double weight = matrix.getValue(k) / norm;
+				final int[] rows = postingRows[term];
+				for (int p = 0; p < postingSizes[term]; p++) {
+					final int other = rows[p];
+					if (scores[other] == 0) {
+						candidates[numCandidates++] = other;
+					}
+					scores[other] += weight * postingWeights[term][p];
+				}
+			}
+
+			// candidates were found through their indexed terms only, so score them in full
+			Arrays.sort(candidates, 0, numCandidates);
+			for (int c = 0; c < numCandidates; c++) {
+				final int other = candidates[c];
+				scores[other] = 0;
+				final double similarity = matrix.cosine(other, row);
+				if (similarity >= threshold) {
+					pairs.add(new SimilarPair(other, row, similarity));
+				}
+			}
+
+			// index the suffix of this row that could still reach the threshold
+			entries = ArrayUtil.grow(entries, end - start);
+			for (int k = start; k < end; k++) {
+				entries[k - start] = ((long) rank[matrix.getColumn(k)] << 32) | (k - start);
+			}
+			Arrays.sort(entries, 0, end - start);
+			double bound = 0;
+			for (int e = 0; e < end - start; e++) {
+				final int k = start + (int) entries[e];
+				final int term = matrix.getColumn(k);
+				final double weight = matrix.getValue(k) / norm;
+				bound += maxWeights[term] * weight;
+				// the margin keeps rounding from pruning a pair that is exactly at the threshold
+				if (bound >= threshold - 1e-9) {
+					final int size = postingSizes[term];
+					if (postingRows[term] == null) {
+						postingRows[term] = new int[Math.min(4, docFreqs[term])];
+						postingWeights[term] = new float[postingRows[term].length];
+					} else if (size == postingRows[term].length) {
+						postingRows[term] = ArrayUtil.grow(postingRows[term], size + 1);
+						postingWeights[term] = ArrayUtil.grow(postingWeights[term], size + 1);
+					}
+					postingRows[term][size] = row;
+					postingWeights[term][size] = (float) weight;
+					postingSizes[term]++;
+				}
+			}
+		}
+		return pairs;
+	}
+}
@@ -0,0 +1,143 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Streaming RFC-4180 CSV reader. Cells may be quoted, quoted cells may contain commas, line breaks and doubled quotes
+ * (""). Lines may end with CRLF, LF or CR. Input is read through one reused char buffer and each record is pushed to a
+ * {@link RowHandler} as soon as it is complete, so memory does not grow with the file. Short records are passed on as
+ * they are; blank lines are skipped.
+ *
+ * Deviations from the RFC are tolerated rather than rejected: a quote inside an unquoted cell is kept as a literal
+ * character, and text after a closing quote is appended to the cell.
+ */
+public class CSVReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int pos = 0;
+
+	private int limit = 0;
+
+	private final StringBuilder cell = new StringBuilder();
+
+	private final ArrayList<String> row = Lists.newArrayList();
+
+	public CSVReader(final Reader in) {
+
+		this.in = in;
+	}
+
+	/**
+	 * Stream a UTF-8 CSV file to the handler. The whole file is reported as a single sheet named after the file.
+	 *
+	 * @param srcFile
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void read(final String srcFile, final RowHandler handler) throws IOException {
+
+		final Reader reader = new InputStreamReader(new FileInputStream(srcFile), Charsets.UTF_8);
+		try {
+			new CSVReader(reader).readAll(new File(srcFile).getName(), handler);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Push every record to the handler.
+	 *
+	 * @param sheetName
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void readAll(final String sheetName, final RowHandler handler) throws IOException {
+
+		handler.startSheet(sheetName);
+		int rowIndex = 0;
+		while (readRow()) {
+			if (!(row.size() == 1 && row.get(0).equals(""))) {
+				handler.handleRow(rowIndex, row);
+			}
+			rowIndex++;
+		}
+		handler.endSheet();
+	}
+
+	/**
+	 * Read the next record into the row buffer.
+	 *
+	 * @return false at end of input
+	 * @throws IOException
+	 */
+	private boolean readRow() throws IOException {
+
+		row.clear();
+		cell.setLength(0);
+		boolean quoted = false; // inside a quoted section
+		boolean cellQuoted = false; // current cell started with a quote
+		boolean any = false;
+
+		while (true) {
+			if (pos == limit && !fill()) {
+				if (!any) {
+					return false;
+				}
+				row.add(cell.toString());
+				return true;
+			}
+
+			final char c = buffer[pos++];
+			any = true;
+			if (quoted) {
+				if (c != '"') {
+					cell.append(c);
+				} else if ((pos < limit || fill()) && buffer[pos] == '"') {
+					cell.append('"'); // escaped quote
+					pos++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"' && cell.length() == 0 && !cellQuoted) {
+				quoted = true;
+				cellQuoted = true;
+			} else if (c == ',') {
+				row.add(cell.toString());
+				cell.setLength(0);
+				cellQuoted = false;
+			} else if (c == '\n' || c == '\r') {
+				if (c == '\r' && (pos < limit || fill()) && buffer[pos] == '\n') {
+					pos++;
+				}
+				row.add(cell.toString());
+				return true;
+			} else if (c == '\uFEFF' && row.isEmpty() && cell.length() == 0 && !cellQuoted) {
+				continue; // byte order mark
+			} else {
+				cell.append(c);
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+
+		final int n = in.read(buffer, 0, buffer.length);
+		pos = 0;
+		limit = n > 0 ? n : 0;
+		return limit > 0;
+	}
+}
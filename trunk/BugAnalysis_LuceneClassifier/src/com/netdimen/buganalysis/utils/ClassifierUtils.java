@@ -1,6 +1,5 @@
 package com.netdimen.buganalysis.utils;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,9 +9,9 @@ import org.apache.lucene.classification.ClassificationResult;
 import org.apache.lucene.classification.SimpleNaiveBayesClassifier;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.AtomicReader;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
@@ -44,10 +43,12 @@ public class ClassifierUtils {
 
 		init();
 
+		IndexSearcher searcher = null;
 		try {
 			final long startTime = System.currentTimeMillis();
 			final SimpleNaiveBayesClassifier classifier = new SimpleNaiveBayesClassifier();
-			final IndexReader reader = DirectoryReader.open(dir());
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 			final AtomicReader ar = SlowCompositeReaderWrapper.wrap(reader);
 			// Note that the cat field is a classification class while body field is the target learning field.
 			/*
@@ -85,18 +86,20 @@ public class ClassifierUtils {
 			final boolean overwrite = true;
 			final String filePath = "./resource/NaiveBayesClassification.txt";
 			DataUtils.saveToFile(result, filePath, overwrite);
-			reader.close();
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 
 	}
 
 	public static Directory dir() throws IOException {
 
-		return FSDirectory.open(new File(INDEX));
+		return FSDirectory.open(IndexManager.getIndexDirectory());
 	}
 
 	public static void init() {
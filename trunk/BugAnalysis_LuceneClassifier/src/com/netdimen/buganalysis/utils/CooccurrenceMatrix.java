@@ -0,0 +1,654 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.IOUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Full-vocabulary term co-occurrence matrix of one field: for every pair of terms, the number of documents containing
+ * both. Unlike {@link TermCooccurrence}, which intersects the postings of a few selected terms, this streams the term
+ * vector of every document once and counts all pairs found in it, so the cost depends on the document lengths and not
+ * on the vocabulary size.
+ *
+ * Pair counts are kept in a sharded primitive hash map keyed by (term1 << 32 | term2). When it holds more than
+ * maxEntries pairs, all of them are written to a sorted run file and the map is cleared; at the end the runs and the
+ * rest of the map are merged into the matrix file. The file stores the upper triangle (term1 < term2) in rows of
+ * delta-coded vInts after the vocabulary and document frequencies, and is read back row by row, e.g. to sample the
+ * pointwise mutual information (PMI) of a few terms for {@link SearchEngineUtils#printConfusionMatrix(String[], double[][])}.
+ */
+public final class CooccurrenceMatrix {
+
+	private static final String CODEC = "BugAnalysisCooccurrence";
+
+	private static final int VERSION = 0;
+
+	private final File file;
+
+	private final int numDocs;
+
+	private final String[] terms;
+
+	private final int[] docFreqs;
+
+	private final long numEntries;
+
+	private CooccurrenceMatrix(final File file, final int numDocs, final String[] terms, final int[] docFreqs, final long numEntries) {
+
+		this.file = file;
+		this.numDocs = numDocs;
+		this.terms = terms;
+		this.docFreqs = docFreqs;
+		this.numEntries = numEntries;
+	}
+
+	/**
+	 * Count the co-occurring terms of every live document and write the matrix file.
+	 *
+	 * @param reader
+	 * @param field
+	 *            : a field with term vectors
+	 * @param file
+	 * @param maxEntries
+	 *            : pairs held in memory before they are spilled to a sorted run
+	 * @return the written matrix
+	 * @throws IOException
+	 */
+	public static CooccurrenceMatrix build(final IndexReader reader, final String field, final File file, final long maxEntries)
+	        throws IOException {
+
+		// 1. Vocabulary: ids follow the sorted term dictionary, so the ids of a term vector come out ascending
+		final BytesRefHash vocabulary = new BytesRefHash();
+		final List<String> labels = Lists.newArrayList();
+		final Terms fieldTerms = MultiFields.getTerms(reader, field);
+		if (fieldTerms != null) {
+			final TermsEnum termsEnum = fieldTerms.iterator(null);
+			BytesRef bytesRef = null;
+			while ((bytesRef = termsEnum.next()) != null) {
+				vocabulary.add(bytesRef);
+				labels.add(bytesRef.utf8ToString());
+			}
+		}
+		final int numTerms = labels.size();
+		final int[] docFreqs = new int[numTerms];
+
+		// 2. Count pairs document by document, spilling to runs
+		final File tmpDir = new File(file.getAbsolutePath() + ".tmp");
+		final List<File> runs = Lists.newArrayList();
+		final PairCounter counter = new PairCounter();
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		int[] ids = new int[16];
+		int numDocs = 0;
+		try {
+			for (int doc = 0; doc < reader.maxDoc(); doc++) {
+				if (liveDocs != null && !liveDocs.get(doc)) {
+					continue;
+				}
+				numDocs++;
+				final Terms vector = reader.getTermVector(doc, field);
+				if (vector == null) {
+					continue;
+				}
+
+				int size = 0;
+				final TermsEnum termsEnum = vector.iterator(null);
+				BytesRef bytesRef = null;
+				while ((bytesRef = termsEnum.next()) != null) {
+					final int id = vocabulary.find(bytesRef);
+					if (id >= 0) {
+						if (size == ids.length) {
+							ids = Arrays.copyOf(ids, size * 2);
+						}
+						ids[size++] = id;
+						docFreqs[id]++;
+					}
+				}
+				for (int i = 0; i < size; i++) {
+					for (int j = i + 1; j < size; j++) {
+						counter.increment(((long) ids[i] << 32) | ids[j]);
+					}
+				}
+
+				if (counter.size() >= maxEntries) {
+					tmpDir.mkdirs();
+					final File run = new File(tmpDir, "run_" + runs.size());
+					counter.spill(run);
+					runs.add(run);
+				}
+			}
+
+			// 3. Merge runs and memory into the matrix file
+			final long numEntries = merge(runs, counter, numDocs, labels, docFreqs, file);
+			System.out.println(">>>Co-occurrence: terms=" + numTerms + ";pairs=" + numEntries + ";runs=" + runs.size() + ";docs=" + numDocs);
+			return new CooccurrenceMatrix(file, numDocs, labels.toArray(new String[numTerms]), docFreqs, numEntries);
+		}
+		finally {
+			for (final File run : runs) {
+				run.delete();
+			}
+			tmpDir.delete();
+		}
+	}
+
+	/**
+	 * Open a matrix file written by {@link #build(IndexReader, String, File, long)}; only the vocabulary is loaded.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static CooccurrenceMatrix open(final File file) throws IOException {
+
+		final InputStreamDataInput in = new InputStreamDataInput(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+			final long numEntries = in.readLong();
+			final int numDocs = in.readVInt();
+			final int numTerms = in.readVInt();
+			final String[] terms = new String[numTerms];
+			final int[] docFreqs = new int[numTerms];
+			for (int t = 0; t < numTerms; t++) {
+				terms[t] = in.readString();
+				docFreqs[t] = in.readVInt();
+			}
+			return new CooccurrenceMatrix(file, numDocs, terms, docFreqs, numEntries);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public int getNumDocs() {
+
+		return numDocs;
+	}
+
+	public int getNumTerms() {
+
+		return terms.length;
+	}
+
+	/**
+	 * @return the number of term pairs occurring together in at least one document
+	 */
+	public long getNumEntries() {
+
+		return numEntries;
+	}
+
+	public String getTerm(final int id) {
+
+		return terms[id];
+	}
+
+	public int getDocFreq(final int id) {
+
+		return docFreqs[id];
+	}
+
+	/**
+	 * The n terms with the highest document frequency, most frequent first.
+	 *
+	 * @param n
+	 * @return term ids
+	 */
+	public int[] getTopTerms(final int n) {
+
+		final long[] ranked = new long[terms.length];
+		for (int t = 0; t < terms.length; t++) {
+			ranked[t] = ((long) (Integer.MAX_VALUE - docFreqs[t]) << 32) | t;
+		}
+		Arrays.sort(ranked);
+		final int[] top = new int[Math.min(n, terms.length)];
+		for (int i = 0; i < top.length; i++) {
+			top[i] = (int) ranked[i];
+		}
+		return top;
+	}
+
+	/**
+	 * Co-occurrence counts of a sample of terms, read in one pass over the file. The matrix is symmetric; the diagonal
+	 * holds the document frequencies.
+	 *
+	 * @param ids
+	 *            : term ids
+	 * @return
+	 * @throws IOException
+	 */
+	public int[][] getCounts(final int[] ids) throws IOException {
+
+		final int[] index = new int[terms.length];
+		Arrays.fill(index, -1);
+		for (int i = 0; i < ids.length; i++) {
+			index[ids[i]] = i;
+		}
+		final int[][] counts = new int[ids.length][ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			counts[i][i] = docFreqs[ids[i]];
+		}
+
+		final InputStreamDataInput in = new InputStreamDataInput(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+			in.readLong();
+			in.readVInt();
+			final int numTerms = in.readVInt();
+			for (int t = 0; t < numTerms; t++) {
+				in.readString();
+				in.readVInt();
+			}
+
+			int row = -1;
+			int rowDelta;
+			while ((rowDelta = in.readVInt()) != 0) {
+				row += rowDelta;
+				final int nnz = in.readVInt();
+				int column = row;
+				for (int k = 0; k < nnz; k++) {
+					column += in.readVInt();
+					final int count = in.readVInt();
+					if (index[row] >= 0 && index[column] >= 0) {
+						counts[index[row]][index[column]] = count;
+						counts[index[column]][index[row]] = count;
+					}
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return counts;
+	}
+
+	/**
+	 * PMI of a sample of terms: log(N * c(a, b) / (df(a) * df(b))), 0 for pairs that never occur together and on the
+	 * diagonal.
+	 *
+	 * @param ids
+	 *            : term ids
+	 * @return
+	 * @throws IOException
+	 */
+	public double[][] getPMI(final int[] ids) throws IOException {
+
+		final int[][] counts = getCounts(ids);
+		final double[][] pmi = new double[ids.length][ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			for (int j = 0; j < ids.length; j++) {
+				if (i != j && counts[i][j] > 0) {
+					pmi[i][j] = Math.log((double) numDocs * counts[i][j] / ((double) docFreqs[ids[i]] * docFreqs[ids[j]]));
+				}
+			}
+		}
+		return pmi;
+	}
+
+	private static long merge(final List<File> runs, final PairCounter counter, final int numDocs, final List<String> labels,
+	        final int[] docFreqs, final File file) throws IOException {
+
+		final PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(runs.size() + 1);
+		final OutputStreamDataOutput out = new OutputStreamDataOutput(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			for (final File run : runs) {
+				final RunCursor cursor = new FileRunCursor(run);
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+			final RunCursor memory = new MemoryRunCursor(counter);
+			if (memory.next()) {
+				queue.add(memory);
+			}
+
+			CodecUtil.writeHeader(out, CODEC, VERSION);
+			// number of entries, filled in once known
+			out.writeLong(0);
+			out.writeVInt(numDocs);
+			out.writeVInt(labels.size());
+			for (int t = 0; t < labels.size(); t++) {
+				out.writeString(labels.get(t));
+				out.writeVInt(docFreqs[t]);
+			}
+
+			final RowWriter rows = new RowWriter(out);
+			long numEntries = 0;
+			while (!queue.isEmpty()) {
+				final long key = queue.peek().key;
+				int count = 0;
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					final RunCursor cursor = queue.poll();
+					count += cursor.count;
+					if (cursor.next()) {
+						queue.add(cursor);
+					} else {
+						cursor.close();
+					}
+				}
+				rows.add((int) (key >>> 32), (int) key, count);
+				numEntries++;
+			}
+			rows.finish();
+			out.close();
+
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(CodecUtil.headerLength(CODEC));
+				raf.writeLong(numEntries);
+			}
+			finally {
+				raf.close();
+			}
+			return numEntries;
+		}
+		finally {
+			for (final RunCursor cursor : queue) {
+				IOUtils.closeWhileHandlingException(cursor);
+			}
+			IOUtils.closeWhileHandlingException(out);
+		}
+	}
+
+	/**
+	 * Buffers the entries of one row, then writes: row delta + 1, number of entries, and (column delta, count) per
+	 * entry. A 0 row delta ends the matrix.
+	 *
+	 */
+	private static class RowWriter {
+
+		private final DataOutput out;
+
+		private int lastRow = -1;
+
+		private int row = -1;
+
+		private int[] columns = new int[16];
+
+		private int[] counts = new int[16];
+
+		private int size;
+
+		RowWriter(final DataOutput out) {
+
+			this.out = out;
+		}
+
+		void add(final int row, final int column, final int count) throws IOException {
+
+			if (row != this.row) {
+				flush();
+				this.row = row;
+			}
+			if (size == columns.length) {
+				columns = Arrays.copyOf(columns, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			columns[size] = column;
+			counts[size] = count;
+			size++;
+		}
+
+		void finish() throws IOException {
+
+			flush();
+			out.writeVInt(0);
+		}
+
+		private void flush() throws IOException {
+
+			if (size == 0) {
+				return;
+			}
+			out.writeVInt(row - lastRow);
+			out.writeVInt(size);
+			int column = row;
+			for (int k = 0; k < size; k++) {
+				out.writeVInt(columns[k] - column);
+				out.writeVInt(counts[k]);
+				column = columns[k];
+			}
+			lastRow = row;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Pair counts in {@link #SHARDS} open-addressing tables of long keys and int counts, so no table grows past a
+	 * fraction of the total and rehashing stays cheap. Key 0 (term 0 with itself) never occurs and marks an empty slot.
+	 *
+	 */
+	static class PairCounter {
+
+		private static final int SHARDS = 16;
+
+		private final long[][] keys = new long[SHARDS][];
+
+		private final int[][] counts = new int[SHARDS][];
+
+		private final int[] sizes = new int[SHARDS];
+
+		private long size;
+
+		PairCounter() {
+
+			clear();
+		}
+
+		long size() {
+
+			return size;
+		}
+
+		void increment(final long key) {
+
+			final long h = key * 0x9E3779B97F4A7C15L;
+			final int shard = (int) (h >>> 60);
+			final long[] shardKeys = keys[shard];
+			final int mask = shardKeys.length - 1;
+			int slot = (int) (h ^ (h >>> 32)) & mask;
+			while (shardKeys[slot] != 0) {
+				if (shardKeys[slot] == key) {
+					counts[shard][slot]++;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			shardKeys[slot] = key;
+			counts[shard][slot] = 1;
+			size++;
+			if (++sizes[shard] > shardKeys.length * 3 / 4) {
+				rehash(shard);
+			}
+		}
+
+		int get(final long key) {
+
+			final long h = key * 0x9E3779B97F4A7C15L;
+			final int shard = (int) (h >>> 60);
+			final long[] shardKeys = keys[shard];
+			final int mask = shardKeys.length - 1;
+			int slot = (int) (h ^ (h >>> 32)) & mask;
+			while (shardKeys[slot] != 0) {
+				if (shardKeys[slot] == key) {
+					return counts[shard][slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return 0;
+		}
+
+		/**
+		 * @return all keys, ascending
+		 */
+		long[] sortedKeys() {
+
+			final long[] sorted = new long[(int) size];
+			int k = 0;
+			for (int shard = 0; shard < SHARDS; shard++) {
+				for (final long key : keys[shard]) {
+					if (key != 0) {
+						sorted[k++] = key;
+					}
+				}
+			}
+			Arrays.sort(sorted);
+			return sorted;
+		}
+
+		/**
+		 * Write all pairs in key order and clear the map.
+		 */
+		void spill(final File run) throws IOException {
+
+			final long[] sorted = sortedKeys();
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+			try {
+				out.writeInt(sorted.length);
+				for (final long key : sorted) {
+					out.writeLong(key);
+					out.writeInt(get(key));
+				}
+			}
+			finally {
+				out.close();
+			}
+			clear();
+		}
+
+		private void clear() {
+
+			for (int shard = 0; shard < SHARDS; shard++) {
+				keys[shard] = new long[64];
+				counts[shard] = new int[64];
+				sizes[shard] = 0;
+			}
+			size = 0;
+		}
+
+		private void rehash(final int shard) {
+
+			final long[] oldKeys = keys[shard];
+			final int[] oldCounts = counts[shard];
+			final long[] newKeys = new long[oldKeys.length * 2];
+			final int[] newCounts = new int[newKeys.length];
+			final int mask = newKeys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					final long h = oldKeys[i] * 0x9E3779B97F4A7C15L;
+					int slot = (int) (h ^ (h >>> 32)) & mask;
+					while (newKeys[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					newKeys[slot] = oldKeys[i];
+					newCounts[slot] = oldCounts[i];
+				}
+			}
+			keys[shard] = newKeys;
+			counts[shard] = newCounts;
+		}
+	}
+
+	/**
+	 * Sorted (key, count) stream of a run file or of the in-memory map, ordered by the current key for merging.
+	 *
+	 */
+	private abstract static class RunCursor implements Comparable<RunCursor>, Closeable {
+
+		long key;
+
+		int count;
+
+		abstract boolean next() throws IOException;
+
+		@Override
+		public int compareTo(final RunCursor other) {
+
+			return key < other.key ? -1 : key == other.key ? 0 : 1;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+		}
+	}
+
+	private static class FileRunCursor extends RunCursor {
+
+		private final DataInputStream in;
+
+		private int remaining;
+
+		FileRunCursor(final File run) throws IOException {
+
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+			remaining = in.readInt();
+		}
+
+		@Override
+		boolean next() throws IOException {
+
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			key = in.readLong();
+			count = in.readInt();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			in.close();
+		}
+	}
+
+	private static class MemoryRunCursor extends RunCursor {
+
+		private final PairCounter counter;
+
+		private final long[] sorted;
+
+		private int k;
+
+		MemoryRunCursor(final PairCounter counter) {
+
+			this.counter = counter;
+			this.sorted = counter.sortedKeys();
+		}
+
+		@Override
+		boolean next() {
+
+			if (k == sorted.length) {
+				return false;
+			}
+			key = sorted[k++];
+			count = counter.get(key);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BitUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.WAH8DocIdSet;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Keyword coverage: how many documents each term of a list matches that none of the terms before it matched. The
+ * documents of a term are read straight from its postings into a word-aligned bitset; the new coverage is the
+ * popcount of (term docs AND NOT covered docs). Nothing is scored and no query is parsed, so terms must be given in
+ * their indexed (analyzed) form.
+ *
+ * {@link #getGreedyCover(String, List, double)} answers the opposite question: which few terms cover a given share of
+ * the documents.
+ */
+public class CoverageUtils {
+
+	/**
+	 * Get the number of documents newly covered by each term, in list order. The cumulative coverage after term j is
+	 * the sum of the first j + 1 entries. Deleted documents are not counted.
+	 *
+	 * @param field
+	 * @param terms
+	 * @return
+	 */
+	public static int[] getNewCoverage(final String field, final List<String> terms) {
+
+		int[] newCoverage = new int[terms.size()];
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			newCoverage = getNewCoverage(searcher.getIndexReader(), field, terms);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return newCoverage;
+	}
+
+	static int[] getNewCoverage(final IndexReader reader, final String field, final List<String> terms) throws IOException {
+
+		final int[] newCoverage = new int[terms.size()];
+		final PostingsReader postings = new PostingsReader(reader, field);
+		final FixedBitSet docs = new FixedBitSet(postings.maxDoc());
+		final FixedBitSet covered = new FixedBitSet(postings.maxDoc());
+		for (int j = 0; j < terms.size(); j++) {
+			if (postings.read(terms.get(j), docs)) {
+				newCoverage[j] = (int) BitUtil.pop_andnot(docs.getBits(), covered.getBits(), 0, docs.getBits().length);
+				covered.or(docs);
+				docs.clear(0, docs.length());
+			}
+		}
+		return newCoverage;
+	}
+
+	/**
+	 * Pick a small set of terms that together cover at least targetCoverage (0..1] of the documents, greedily taking
+	 * the term with the largest number of not yet covered documents each time. Stops early if the candidates cannot
+	 * reach the target.
+	 *
+	 * The greedy choice is evaluated lazily: the gain of a term can only shrink as more documents are covered, so the
+	 * gain computed in an earlier round is an upper bound. Candidates sit in a max-heap keyed by that bound; the top is
+	 * re-evaluated and taken if its fresh gain still beats the next bound, otherwise pushed back with the new value.
+	 * Most candidates are never looked at again after the first round. Their documents are kept as compressed
+	 * {@link WAH8DocIdSet}s.
+	 *
+	 * @param field
+	 * @param candidates
+	 *            : terms in indexed form; on equal gain the earlier one is picked
+	 * @param targetCoverage
+	 * @return picked terms in the order they were picked; {@link #getNewCoverage(String, List)} on this list gives the
+	 *         gain of each
+	 */
+	public static List<String> getGreedyCover(final String field, final List<String> candidates, final double targetCoverage) {
+
+		List<String> cover = Lists.newArrayList();
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			cover = getGreedyCover(searcher.getIndexReader(), field, candidates, targetCoverage);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return cover;
+	}
+
+	static List<String> getGreedyCover(final IndexReader reader, final String field, final List<String> candidates, final double targetCoverage)
+	        throws IOException {
+
+		final List<String> cover = Lists.newArrayList();
+		final PostingsReader postings = new PostingsReader(reader, field);
+		final long target = (long) Math.ceil(targetCoverage * reader.numDocs());
+
+		// 1. Compress the documents of every candidate, the initial bound is the document count
+		final WAH8DocIdSet[] docSets = new WAH8DocIdSet[candidates.size()];
+		final PriorityQueue<Long> queue = new PriorityQueue<Long>(Math.max(1, candidates.size()), Collections.reverseOrder());
+		final FixedBitSet docs = new FixedBitSet(postings.maxDoc());
+		for (int i = 0; i < candidates.size(); i++) {
+			if (postings.read(candidates.get(i), docs)) {
+				docSets[i] = new WAH8DocIdSet.Builder().add(docs.iterator()).build();
+				queue.add(bound(docSets[i].cardinality(), i));
+				docs.clear(0, docs.length());
+			}
+		}
+
+		// 2. Lazy greedy
+		final FixedBitSet covered = new FixedBitSet(postings.maxDoc());
+		long coverage = 0;
+		while (coverage < target && !queue.isEmpty()) {
+			final int i = Integer.MAX_VALUE - (int) (queue.poll() & 0xFFFFFFFFL);
+			int gain = 0;
+			final DocIdSetIterator it = docSets[i].iterator();
+			int doc;
+			while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+				if (!covered.get(doc)) {
+					gain++;
+				}
+			}
+
+			if (gain == 0) {
+				docSets[i] = null;
+			} else if (queue.isEmpty() || bound(gain, i) > queue.peek()) {
+				covered.or(docSets[i].iterator());
+				coverage += gain;
+				cover.add(candidates.get(i));
+				docSets[i] = null;
+			} else {
+				queue.add(bound(gain, i));
+			}
+		}
+		System.out.println(">>>Keyword cover: picked=" + cover.size() + ";candidates=" + candidates.size() + ";covered=" + coverage + "/"
+		                   + reader.numDocs());
+		return cover;
+	}
+
+	/**
+	 * Heap key: gain in the high word, earlier candidates first on equal gain.
+	 */
+	private static long bound(final int gain, final int candidate) {
+
+		return ((long) gain << 32) | (Integer.MAX_VALUE - candidate);
+	}
+
+	/**
+	 * Reads the live documents of terms of one field, segment by segment, into top-level doc ids.
+	 *
+	 */
+	static class PostingsReader {
+
+		private final List<AtomicReaderContext> leaves;
+
+		private final TermsEnum[] termsEnums;
+
+		private final DocsEnum[] docsEnums;
+
+		private final BytesRef bytesRef = new BytesRef();
+
+		private final int maxDoc;
+
+		PostingsReader(final IndexReader reader, final String field) throws IOException {
+
+			leaves = reader.leaves();
+			termsEnums = new TermsEnum[leaves.size()];
+			docsEnums = new DocsEnum[leaves.size()];
+			for (int i = 0; i < leaves.size(); i++) {
+				final Terms terms = leaves.get(i).reader().terms(field);
+				termsEnums[i] = terms != null ? terms.iterator(null) : null;
+			}
+			maxDoc = reader.maxDoc();
+		}
+
+		int maxDoc() {
+
+			return maxDoc;
+		}
+
+		/**
+		 * Set the bits of all live documents containing the term.
+		 *
+		 * @param term
+		 * @param docs
+		 *            : at least maxDoc() bits
+		 * @return false if no segment has the term
+		 * @throws IOException
+		 */
+		boolean read(final String term, final FixedBitSet docs) throws IOException {
+
+			bytesRef.copyChars(term);
+			boolean found = false;
+			for (int i = 0; i < leaves.size(); i++) {
+				if (termsEnums[i] == null || !termsEnums[i].seekExact(bytesRef)) {
+					continue;
+				}
+				found = true;
+				final AtomicReader reader = leaves.get(i).reader();
+				final int docBase = leaves.get(i).docBase;
+				docsEnums[i] = termsEnums[i].docs(reader.getLiveDocs(), docsEnums[i], DocsEnum.FLAG_NONE);
+				int doc;
+				while ((doc = docsEnums[i].nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+					docs.set(docBase + doc);
+				}
+			}
+			return found;
+		}
+	}
+}
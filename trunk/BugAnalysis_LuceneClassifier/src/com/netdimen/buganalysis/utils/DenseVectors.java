@@ -0,0 +1,132 @@
+package com.netdimen.buganalysis.utils;
+
+import java.util.Arrays;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Fixed-length float vectors, one per document, stored back to back in one float[] block: row i occupies
+ * [i * dimensions, (i + 1) * dimensions). Rows produced by {@link RandomProjection} are L2-normalized, so their dot
+ * product is their cosine similarity. Products are computed with {@link VectorKernels}.
+ */
+public final class DenseVectors {
+
+	/** rows scored per call of the batched kernel */
+	private static final int BATCH_SIZE = 256;
+
+	private final VectorKernels kernels = VectorKernels.get();
+
+	private final int dimensions;
+
+	private final float[] values;
+
+	DenseVectors(final int dimensions, final float[] values) {
+
+		this.dimensions = dimensions;
+		this.values = values;
+	}
+
+	/**
+	 * Scale a vector to unit length; a zero vector is left as it is.
+	 *
+	 * @param vector
+	 * @param offset
+	 * @param dimensions
+	 */
+	public static void normalize(final float[] vector, final int offset, final int dimensions) {
+
+		final float norm = VectorKernels.get().norm(vector, offset, dimensions);
+		if (norm > 0) {
+			final float scale = 1 / norm;
+			for (int d = offset; d < offset + dimensions; d++) {
+				vector[d] *= scale;
+			}
+		}
+	}
+
+	public int getNumRows() {
+
+		return values.length / dimensions;
+	}
+
+	public int getDimensions() {
+
+		return dimensions;
+	}
+
+	/**
+	 * @param row
+	 * @return a copy of the row
+	 */
+	public float[] get(final int row) {
+
+		return Arrays.copyOfRange(values, row * dimensions, (row + 1) * dimensions);
+	}
+
+	/**
+	 * The backing block, for kernels working on many rows at once. Must not be modified.
+	 */
+	float[] getValues() {
+
+		return values;
+	}
+
+	public float dot(final int row1, final int row2) {
+
+		return kernels.dot(values, row1 * dimensions, values, row2 * dimensions, dimensions);
+	}
+
+	public float dot(final int row, final float[] query) {
+
+		return kernels.dot(values, row * dimensions, query, 0, dimensions);
+	}
+
+	/**
+	 * The k rows with the highest dot product with a query, by scanning all rows.
+	 *
+	 * @param query
+	 * @param k
+	 * @param exclude
+	 *            : a row to leave out, e.g. the query document itself; -1 for none
+	 * @return rows as doc ids with the dot product as score, best first
+	 */
+	public TopDocs search(final float[] query, final int k, final int exclude) {
+
+		final int numRows = getNumRows();
+		if (k <= 0 || numRows == 0) {
+			return new TopDocs(0, new ScoreDoc[0], Float.NaN);
+		}
+		final PriorityQueue<ScoreDoc> queue = new PriorityQueue<ScoreDoc>(Math.min(k, numRows)) {
+
+			@Override
+			protected boolean lessThan(final ScoreDoc a, final ScoreDoc b) {
+
+				return a.score < b.score || a.score == b.score && a.doc > b.doc;
+			}
+		};
+		ScoreDoc spare = new ScoreDoc(-1, 0);
+		final float[] scores = new float[BATCH_SIZE];
+		for (int from = 0; from < numRows; from += BATCH_SIZE) {
+			final int to = Math.min(from + BATCH_SIZE, numRows);
+			kernels.dots(values, dimensions, from, to, query, scores);
+			for (int row = from; row < to; row++) {
+				if (row != exclude) {
+					spare.doc = row;
+					spare.score = scores[row - from];
+					spare = queue.insertWithOverflow(spare);
+					if (spare == null) {
+						spare = new ScoreDoc(-1, 0);
+					}
+				}
+			}
+		}
+
+		final ScoreDoc[] hits = new ScoreDoc[queue.size()];
+		for (int i = hits.length - 1; i >= 0; i--) {
+			hits[i] = queue.pop();
+		}
+		return new TopDocs(numRows - (exclude >= 0 && exclude < numRows ? 1 : 0), hits, hits.length > 0 ? hits[0].score : Float.NaN);
+	}
+}
@@ -0,0 +1,272 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable document-term matrix in compressed sparse row (CSR) form: row = document, column = term id (position of
+ * the term in the field's dictionary), value = term frequency. Row i holds the entries rowStart(i) until rowEnd(i) with
+ * ascending column ids. The L2 norm of every row is precomputed.
+ *
+ * The matrix is built in one pass over the postings of the field: entries arrive term by term, which is column order,
+ * and are transposed into rows with a counting sort. Memory is one int and one float per non-zero entry plus the term
+ * labels, independent of how many documents share the vocabulary.
+ *
+ * A matrix built by {@link HashingVectorizer} has no labels: its columns are hash buckets, labelled "#[bucket]".
+ */
+public final class DocTermMatrix {
+
+	/** null if the columns are hash buckets */
+	private final String[] terms;
+
+	private final int numColumns;
+
+	private final int[] rowPtr;
+
+	private final int[] columns;
+
+	private final float[] values;
+
+	private final double[] norms;
+
+	DocTermMatrix(final String[] terms, final int[] rowPtr, final int[] columns, final float[] values) {
+
+		this(terms, terms.length, rowPtr, columns, values);
+	}
+
+	/**
+	 * A matrix with numColumns unlabelled columns.
+	 */
+	DocTermMatrix(final int numColumns, final int[] rowPtr, final int[] columns, final float[] values) {
+
+		this(null, numColumns, rowPtr, columns, values);
+	}
+
+	private DocTermMatrix(final String[] terms, final int numColumns, final int[] rowPtr, final int[] columns, final float[] values) {
+
+		this.terms = terms;
+		this.numColumns = numColumns;
+		this.rowPtr = rowPtr;
+		this.columns = columns;
+		this.values = values;
+		this.norms = new double[rowPtr.length - 1];
+		for (int i = 0; i < norms.length; i++) {
+			double sum = 0;
+			for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				sum += (double) values[k] * values[k];
+			}
+			norms[i] = Math.sqrt(sum);
+		}
+	}
+
+	/**
+	 * Build the matrix of the first maxDoc documents of the index. Deleted documents get empty rows. The columns span
+	 * all terms of the field, also those that only occur in later documents.
+	 *
+	 * @param reader
+	 * @param field
+	 * @param maxDoc
+	 * @return
+	 * @throws IOException
+	 */
+	public static DocTermMatrix build(final IndexReader reader, final String field, final int maxDoc) throws IOException {
+
+		final int numRows = Math.min(maxDoc, reader.maxDoc());
+		final Terms fieldTerms = MultiFields.getTerms(reader, field);
+		if (fieldTerms == null) {
+			return new DocTermMatrix(new String[0], new int[numRows + 1], new int[0], new float[0]);
+		}
+
+		// 1. Collect entries in column order
+		final long sumDocFreq = fieldTerms.getSumDocFreq();
+		int[] rows = new int[sumDocFreq > 0 && sumDocFreq < Integer.MAX_VALUE ? (int) sumDocFreq : 16];
+		int[] cols = new int[rows.length];
+		float[] vals = new float[rows.length];
+		final List<String> labels = Lists.newArrayList();
+		int size = 0;
+		int numTerms = 0;
+
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		final TermsEnum termsEnum = fieldTerms.iterator(null);
+		DocsEnum docsEnum = null;
+		BytesRef bytesRef = null;
+		while ((bytesRef = termsEnum.next()) != null) {
+			labels.add(bytesRef.utf8ToString());
+
+			docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_FREQS);
+			int doc;
+			while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS && doc < numRows) {
+				if (size == rows.length) {
+					rows = ArrayUtil.grow(rows, size + 1);
+					cols = ArrayUtil.grow(cols, size + 1);
+					vals = ArrayUtil.grow(vals, size + 1);
+				}
+				rows[size] = doc;
+				cols[size] = numTerms;
+				vals[size] = docsEnum.freq();
+				size++;
+			}
+			numTerms++;
+		}
+
+		// 2. Transpose: count entries per row, then place them; columns stay ascending within a row
+		final int[] rowPtr = new int[numRows + 1];
+		for (int k = 0; k < size; k++) {
+			rowPtr[rows[k] + 1]++;
+		}
+		for (int i = 0; i < numRows; i++) {
+			rowPtr[i + 1] += rowPtr[i];
+		}
+
+		final int[] next = Arrays.copyOf(rowPtr, numRows);
+		final int[] columns = new int[size];
+		final float[] values = new float[size];
+		for (int k = 0; k < size; k++) {
+			final int pos = next[rows[k]]++;
+			columns[pos] = cols[k];
+			values[pos] = vals[k];
+		}
+
+		return new DocTermMatrix(labels.toArray(new String[numTerms]), rowPtr, columns, values);
+	}
+
+	public int getNumRows() {
+
+		return norms.length;
+	}
+
+	public int getNumTerms() {
+
+		return numColumns;
+	}
+
+	/**
+	 * @return the number of non-zero entries
+	 */
+	public int getSize() {
+
+		return columns.length;
+	}
+
+	public String getTerm(final int column) {
+
+		return terms != null ? terms[column] : "#" + column;
+	}
+
+	public String[] getTerms() {
+
+		if (terms != null) {
+			return terms.clone();
+		}
+		final String[] labels = new String[numColumns];
+		for (int column = 0; column < numColumns; column++) {
+			labels[column] = getTerm(column);
+		}
+		return labels;
+	}
+
+	public int getRowStart(final int row) {
+
+		return rowPtr[row];
+	}
+
+	public int getRowEnd(final int row) {
+
+		return rowPtr[row + 1];
+	}
+
+	public int getColumn(final int entry) {
+
+		return columns[entry];
+	}
+
+	public float getValue(final int entry) {
+
+		return values[entry];
+	}
+
+	public double getNorm(final int row) {
+
+		return norms[row];
+	}
+
+	/**
+	 * Random access to one cell, by binary search within the row.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public float get(final int row, final int column) {
+
+		final int k = Arrays.binarySearch(columns, rowPtr[row], rowPtr[row + 1], column);
+		return k >= 0 ? values[k] : 0f;
+	}
+
+	/**
+	 * Dot product of two rows, by merging their sorted column ids.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double dot(final int row1, final int row2) {
+
+		int k1 = rowPtr[row1];
+		int k2 = rowPtr[row2];
+		final int end1 = rowPtr[row1 + 1];
+		final int end2 = rowPtr[row2 + 1];
+		double sum = 0;
+		while (k1 < end1 && k2 < end2) {
+			final int c1 = columns[k1];
+			final int c2 = columns[k2];
+			if (c1 == c2) {
+				sum += (double) values[k1++] * values[k2++];
+			} else if (c1 < c2) {
+				k1++;
+			} else {
+				k2++;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Cosine similarity of two rows. NaN if one of them is empty.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double cosine(final int row1, final int row2) {
+
+		return dot(row1, row2) / (norms[row1] * norms[row2]);
+	}
+
+	/**
+	 * Number of rows in which each term occurs.
+	 *
+	 * @return
+	 */
+	public int[] getDocFreqs() {
+
+		final int[] docFreqs = new int[numColumns];
+		for (int k = 0; k < columns.length; k++) {
+			docFreqs[columns[k]]++;
+		}
+		return docFreqs;
+	}
+}
@@ -1,11 +1,9 @@
 package com.netdimen.buganalysis.utils;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
@@ -16,12 +14,9 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
-import com.netdimen.buganalysis.config.Config;
-
 /**
  * Retrieve information to construct TF-IDF model
  * 
@@ -38,10 +33,11 @@ public class DocumentUtils {
 	public static int getTotalDocs() {
 
 		int totalDocs = -1;
+		IndexSearcher searcher = null;
 
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-			totalDocs = reader.numDocs();
+			searcher = IndexManager.acquire();
+			totalDocs = searcher.getIndexReader().numDocs();
 		}
 		catch (CorruptIndexException e) {
 			// TODO Auto-generated catch block
@@ -51,6 +47,9 @@ public class DocumentUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return totalDocs;
 	}
 
@@ -62,9 +61,9 @@ public class DocumentUtils {
 	public static int getDocID(final Term term) {
 
 		int docID = -1;
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-			final IndexSearcher searcher = new IndexSearcher(reader);
+			searcher = IndexManager.acquire();
 			final QueryParser parser = new QueryParser(Version.LUCENE_46, term.field(), new StandardAnalyzer(Version.LUCENE_46));
 			final Query query = parser.parse(term.text());
 			final TopDocs docs = searcher.search(query, 1);
@@ -78,13 +77,18 @@ public class DocumentUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return docID;
 	}
 
 	public static void printDocument(final int docID) {
 
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 			final Fields fields = MultiFields.getFields(reader);
 
 			System.out.print("DocID=" + docID);
@@ -112,6 +116,9 @@ public class DocumentUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 	}
 
 	/**
@@ -125,8 +132,10 @@ public class DocumentUtils {
 	public static int getTermFreq(final int docId, final String field, final String value) {
 
 		int termFreq = -1;
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 			final Terms vector = reader.getTermVector(docId, field);
 
 			TermsEnum termsEnum = MultiFields.getTerms(reader, field).iterator(null);
@@ -148,6 +157,9 @@ public class DocumentUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return termFreq;
 	}
 
@@ -165,9 +177,10 @@ public class DocumentUtils {
 	public static int getDocFreq(final Term term) {
 
 		int docFreq = -1;
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-			docFreq = reader.docFreq(term);
+			searcher = IndexManager.acquire();
+			docFreq = searcher.getIndexReader().docFreq(term);
 		}
 		catch (CorruptIndexException e) {
 			// TODO Auto-generated catch block
@@ -177,6 +190,9 @@ public class DocumentUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return docFreq;
 	}
 
@@ -0,0 +1,195 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.NumberToTextConverter;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Read an XLS workbook with POI's event model and push its rows to a {@link RowHandler}. Unlike
+ * {@link POIUtils#getRowFromExcel(String, String, int)} no HSSFWorkbook is built: records are decoded one by one from
+ * the file and only the shared string table and one row buffer are kept in memory.
+ * 
+ * Cell values follow {@link POIUtils#getCellValue(org.apache.poi.ss.usermodel.Workbook, Cell)}: dates are formatted
+ * with Config.dateFormat, other numbers as plain text, and formulas give the result Excel cached when it saved the
+ * file, as they are not evaluated again.
+ */
+public class ExcelEventReader implements HSSFListener {
+
+	private final RowHandler handler;
+
+	private final FormatTrackingHSSFListener formatListener;
+
+	private final List<String> sheetNames = Lists.newArrayList();
+
+	private final ArrayList<String> row = Lists.newArrayList();
+
+	private SSTRecord sst = null;
+
+	private int sheetIndex = -1;
+
+	private boolean inSheet = false;
+
+	private boolean rowHasValue = false;
+
+	/** column of a formula whose string result follows in a StringRecord, -1 if none */
+	private int formulaColumn = -1;
+
+	private IOException failure = null;
+
+	private ExcelEventReader(final RowHandler handler) {
+
+		this.handler = handler;
+		this.formatListener = new FormatTrackingHSSFListener(new MissingRecordAwareHSSFListener(this));
+	}
+
+	/**
+	 * Stream every sheet of an XLS file to the handler.
+	 * 
+	 * @param srcFile
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void read(final String srcFile, final RowHandler handler) throws IOException {
+
+		final ExcelEventReader reader = new ExcelEventReader(handler);
+		final NPOIFSFileSystem fs = new NPOIFSFileSystem(new File(srcFile), true);
+		try {
+			final HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(reader.formatListener);
+			new HSSFEventFactory().processWorkbookEvents(request, fs.getRoot());
+		}
+		finally {
+			fs.close();
+		}
+
+		if (reader.failure != null) {
+			throw reader.failure;
+		}
+	}
+
+	@Override
+	public void processRecord(final Record record) {
+
+		if (failure != null) {
+			return; // handler failed: drain the remaining records
+		}
+
+		try {
+			switch (record.getSid()) {
+				case BoundSheetRecord.sid:
+					sheetNames.add(((BoundSheetRecord) record).getSheetname());
+					break;
+				case SSTRecord.sid:
+					sst = (SSTRecord) record;
+					break;
+				case BOFRecord.sid:
+					if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+						sheetIndex++;
+						inSheet = true;
+						handler.startSheet(sheetIndex < sheetNames.size() ? sheetNames.get(sheetIndex) : "Sheet" + sheetIndex);
+					}
+					break;
+				case EOFRecord.sid:
+					if (inSheet) {
+						inSheet = false;
+						handler.endSheet();
+					}
+					break;
+				case LabelSSTRecord.sid:
+					final LabelSSTRecord label = (LabelSSTRecord) record;
+					setCell(label.getColumn(), sst.getString(label.getSSTIndex()).getString());
+					break;
+				case LabelRecord.sid:
+					final LabelRecord oldLabel = (LabelRecord) record;
+					setCell(oldLabel.getColumn(), oldLabel.getValue());
+					break;
+				case NumberRecord.sid:
+					final NumberRecord number = (NumberRecord) record;
+					setCell(number.getColumn(), formatNumber(number, number.getValue()));
+					break;
+				case FormulaRecord.sid:
+					final FormulaRecord formula = (FormulaRecord) record;
+					if (formula.hasCachedResultString()) {
+						formulaColumn = formula.getColumn();
+					} else if (formula.getCachedResultType() == Cell.CELL_TYPE_NUMERIC) {
+						setCell(formula.getColumn(), formatNumber(formula, formula.getValue()));
+					} else if (formula.getCachedResultType() == Cell.CELL_TYPE_BOOLEAN) {
+						setCell(formula.getColumn(), formula.getCachedBooleanValue() + "");
+					}
+					break;
+				case StringRecord.sid:
+					if (formulaColumn >= 0) {
+						setCell(formulaColumn, ((StringRecord) record).getString());
+						formulaColumn = -1;
+					}
+					break;
+				case BoolErrRecord.sid:
+					final BoolErrRecord bool = (BoolErrRecord) record;
+					if (bool.isBoolean()) {
+						setCell(bool.getColumn(), bool.getBooleanValue() + "");
+					}
+					break;
+				default:
+					if (record instanceof LastCellOfRowDummyRecord) {
+						if (inSheet && rowHasValue) {
+							handler.handleRow(((LastCellOfRowDummyRecord) record).getRow(), row);
+						}
+						row.clear();
+						rowHasValue = false;
+					}
+					break;
+			}
+		}
+		catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void setCell(final int column, final String value) {
+
+		if (!inSheet || value == null || value.equals("")) {
+			return;
+		}
+		while (row.size() <= column) {
+			row.add("");
+		}
+		row.set(column, value);
+		rowHasValue = true;
+	}
+
+	private String formatNumber(final CellValueRecordInterface cell, final double value) {
+
+		final int formatIndex = formatListener.getFormatIndex(cell);
+		final String formatString = formatListener.getFormatString(cell);
+		if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+			return DataUtils.dateToString(DateUtil.getJavaDate(value));
+		}
+		return NumberToTextConverter.toText(value);
+	}
+}
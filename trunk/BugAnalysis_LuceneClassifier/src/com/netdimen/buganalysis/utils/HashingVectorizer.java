@@ -0,0 +1,270 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Feature hashing ("hashing trick", Weinberger et al.): every term is mapped straight to one of 2^bits columns by a hash
+ * of its text, with a sign from another bit of the hash, so no term ids are assigned and no vocabulary is kept. Colliding
+ * terms share a column; the random signs make them cancel rather than add up, so dot products are preserved in
+ * expectation.
+ *
+ * Columns only depend on the term text: rows of different index generations, and of texts that were never indexed,
+ * are comparable. The price is that a column cannot be turned back into its terms.
+ */
+public final class HashingVectorizer {
+
+	public static final int MAX_BITS = 24;
+
+	private static final HashFunction TERM_HASH = Hashing.murmur3_32(0x5eed);
+
+	private final int bits;
+
+	/**
+	 * @param bits
+	 *            : 1 to {@link #MAX_BITS}; 18 (262144 columns) keeps collisions rare for a few 10000 terms
+	 */
+	public HashingVectorizer(final int bits) {
+
+		if (bits < 1 || bits > MAX_BITS) {
+			throw new IllegalArgumentException("Bits must be within 1.." + MAX_BITS + ": " + bits);
+		}
+		this.bits = bits;
+	}
+
+	public int getDimensions() {
+
+		return 1 << bits;
+	}
+
+	public int getColumn(final String term) {
+
+		return component(term) >>> 1;
+	}
+
+	/**
+	 * @param term
+	 * @return 1 or -1
+	 */
+	public float getSign(final String term) {
+
+		return (component(term) & 1) == 0 ? 1f : -1f;
+	}
+
+	/**
+	 * Term frequency rows of the first maxDoc documents of the index, in one pass over the postings of the field as in
+	 * {@link DocTermMatrix#build(IndexReader, String, int)}: each term is hashed once when it is reached and not kept.
+	 * A field that is only stored is analyzed from its stored values. Deleted documents get empty rows.
+	 *
+	 * @param reader
+	 * @param field
+	 * @param maxDoc
+	 * @param analyzer
+	 *            : the analyzer the field was indexed with
+	 * @return
+	 * @throws IOException
+	 */
+	public DocTermMatrix vectorize(final IndexReader reader, final String field, final int maxDoc, final Analyzer analyzer)
+	        throws IOException {
+
+		final int numRows = Math.min(maxDoc, reader.maxDoc());
+		final Rows rows = new Rows(getDimensions(), numRows);
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		final Terms fieldTerms = MultiFields.getTerms(reader, field);
+		if (fieldTerms == null) {
+			for (int doc = 0; doc < numRows; doc++) {
+				if (liveDocs == null || liveDocs.get(doc)) {
+					for (final String value : reader.document(doc, Collections.singleton(field)).getValues(field)) {
+						analyze(analyzer, field, value, rows);
+					}
+				}
+				rows.endRow();
+			}
+			return rows.toMatrix();
+		}
+
+		// 1. Collect entries in the order of the dictionary
+		final long sumDocFreq = fieldTerms.getSumDocFreq();
+		int[] docs = new int[sumDocFreq > 0 && sumDocFreq < Integer.MAX_VALUE ? (int) sumDocFreq : 16];
+		int[] components = new int[docs.length];
+		float[] freqs = new float[docs.length];
+		int size = 0;
+
+		final TermsEnum termsEnum = fieldTerms.iterator(null);
+		DocsEnum docsEnum = null;
+		BytesRef bytesRef = null;
+		while ((bytesRef = termsEnum.next()) != null) {
+			final int component = component(bytesRef.utf8ToString());
+			docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_FREQS);
+			int doc;
+			while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS && doc < numRows) {
+				if (size == docs.length) {
+					docs = ArrayUtil.grow(docs, size + 1);
+					components = ArrayUtil.grow(components, size + 1);
+					freqs = ArrayUtil.grow(freqs, size + 1);
+				}
+				docs[size] = doc;
+				components[size] = component;
+				freqs[size] = docsEnum.freq();
+				size++;
+			}
+		}
+
+		// 2. Transpose with a counting sort, then sum up each row
+		final int[] rowPtr = new int[numRows + 1];
+		for (int k = 0; k < size; k++) {
+			rowPtr[docs[k] + 1]++;
+		}
+		for (int i = 0; i < numRows; i++) {
+			rowPtr[i + 1] += rowPtr[i];
+		}
+		final int[] next = Arrays.copyOf(rowPtr, numRows);
+		final int[] order = new int[size];
+		for (int k = 0; k < size; k++) {
+			order[next[docs[k]]++] = k;
+		}
+		for (int i = 0; i < numRows; i++) {
+			for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				rows.add(components[order[k]], freqs[order[k]]);
+			}
+			rows.endRow();
+		}
+		return rows.toMatrix();
+	}
+
+	/**
+	 * Term frequency rows of texts, e.g. tickets that are not indexed yet.
+	 *
+	 * @param texts
+	 * @param analyzer
+	 * @return
+	 * @throws IOException
+	 */
+	public DocTermMatrix vectorize(final List<String> texts, final Analyzer analyzer) throws IOException {
+
+		final Rows rows = new Rows(getDimensions(), texts.size());
+		for (final String text : texts) {
+			if (text != null) {
+				analyze(analyzer, null, text, rows);
+			}
+			rows.endRow();
+		}
+		return rows.toMatrix();
+	}
+
+	private void analyze(final Analyzer analyzer, final String field, final String text, final Rows rows) throws IOException {
+
+		final TokenStream stream = analyzer.tokenStream(field, new StringReader(text));
+		try {
+			final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				rows.add(component(term.toString()), 1);
+			}
+			stream.end();
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * column << 1 | sign bit: the column from the high bits of the hash, the sign from the lowest
+	 */
+	private int component(final String term) {
+
+		final int hash = TERM_HASH.hashString(term, Charsets.UTF_8).asInt();
+		return (hash >>> 32 - bits) << 1 | hash & 1;
+	}
+
+	/**
+	 * Collects rows one after the other: a row is summed up in a dense scratch array, then its touched columns are
+	 * sorted and appended in CSR form. Columns whose terms cancelled out are left out.
+	 */
+	private static class Rows {
+
+		private final int numColumns;
+
+		private final int[] rowPtr;
+
+		private int[] columns = new int[1024];
+
+		private float[] values = new float[1024];
+
+		private int size;
+
+		private int numRows;
+
+		private final float[] scratch;
+
+		private final FixedBitSet touched;
+
+		private int[] touchedColumns = new int[64];
+
+		private int numTouched;
+
+		Rows(final int numColumns, final int numRows) {
+
+			this.numColumns = numColumns;
+			this.rowPtr = new int[numRows + 1];
+			this.scratch = new float[numColumns];
+			this.touched = new FixedBitSet(numColumns);
+		}
+
+		void add(final int component, final float freq) {
+
+			final int column = component >>> 1;
+			if (!touched.get(column)) {
+				touched.set(column);
+				touchedColumns = ArrayUtil.grow(touchedColumns, numTouched + 1);
+				touchedColumns[numTouched++] = column;
+			}
+			scratch[column] += (component & 1) == 0 ? freq : -freq;
+		}
+
+		void endRow() {
+
+			Arrays.sort(touchedColumns, 0, numTouched);
+			columns = ArrayUtil.grow(columns, size + numTouched);
+			values = ArrayUtil.grow(values, size + numTouched);
+			for (int i = 0; i < numTouched; i++) {
+				final int column = touchedColumns[i];
+				if (scratch[column] != 0) {
+					columns[size] = column;
+					values[size] = scratch[column];
+					size++;
+				}
+				scratch[column] = 0;
+				touched.clear(column);
+			}
+			numTouched = 0;
+			rowPtr[++numRows] = size;
+		}
+
+		DocTermMatrix toMatrix() {
+
+			return new DocTermMatrix(numColumns, rowPtr, Arrays.copyOf(columns, size), Arrays.copyOf(values, size));
+		}
+	}
+}
@@ -0,0 +1,1006 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin) over L2-normalized dense vectors, e.g. from
+ * {@link RandomProjection}, for approximate top-k search by dot product. Every node links to up to M similar nodes
+ * (2M on level 0), chosen with the neighbour selection heuristic so that links spread in different directions, and
+ * links back from the neighbours. A neighbour that already has all its links drops the least similar one the
+ * heuristic would skip; links are kept sorted with their similarity, so this only compares the dropped candidates with
+ * the links above them. A node is also on level l with probability M^-l. A search descends greedily from the top level and runs a best-first
+ * search with a queue of ef nodes on level 0: larger ef trades time for recall.
+ *
+ * Nodes are identified by a key and added incrementally; adding a key again replaces its vector, and deleted nodes
+ * stay in the graph as stepping stones but are never returned. The graph lives in a file mapped read-write: a header,
+ * then one fixed-size record per node with its level-0 links and vector, which is all a search reads beyond the few
+ * upper-level nodes. Keys and upper-level links are kept on the heap and written after the records by
+ * {@link #commit(long)}. The header is marked dirty before the first change after a commit, and a dirty file is
+ * discarded when it is opened again, so a crash never leaves a half-written graph behind.
+ *
+ * Searchers that must not change the file open it with {@link #openReadOnly(File, int, int)}: a graph that is dirty,
+ * e.g. while another process adds to it, is not available to them. A graph that is started over gets a new file, so
+ * their mappings of the old one stay valid.
+ *
+ * One mapping limits the records to 2GB, about 1.9 million nodes of 256 dimensions. Searches may run concurrently;
+ * changes wait for them.
+ */
+public final class HnswIndex implements Closeable {
+
+	private static final int MAGIC = 0x484e5357;
+
+	private static final int FORMAT = 1;
+
+	private static final int HEADER_SIZE = 64;
+
+	private static final int DIMENSIONS = 8;
+
+	private static final int M = 12;
+
+	private static final int CAPACITY = 16;
+
+	private static final int SIZE = 20;
+
+	private static final int ENTRY_POINT = 24;
+
+	private static final int MAX_LEVEL = 28;
+
+	private static final int INDEX_VERSION = 32;
+
+	private static final int TAIL_LENGTH = 40;
+
+	private static final int DIRTY = 48;
+
+	/** record: level, deleted, level-0 link count, 2M level-0 links, their 2M similarities, then the vector */
+	private static final int RECORD_LINKS = 12;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int TOP_LEVEL = 16;
+
+	private final File path;
+
+	private final RandomAccessFile file;
+
+	private final boolean readOnly;
+
+	private final FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	private FloatBuffer floats;
+
+	private final VectorKernels kernels = VectorKernels.get();
+
+	private final int dimensions;
+
+	private final int m;
+
+	private final int efConstruction;
+
+	private final int recordSize;
+
+	private final int vectorOffset;
+
+	private int capacity;
+
+	private int size;
+
+	private int entryPoint;
+
+	private int maxLevel;
+
+	private long indexVersion;
+
+	private boolean dirty;
+
+	private int numDeleted;
+
+	/** upper[node]: for levels 1..level, a link count, M links and the float bits of their M similarities */
+	private int[][] upper;
+
+	private final List<String> keys = Lists.newArrayList();
+
+	private final Map<String, Integer> nodes = Maps.newHashMap();
+
+	private final double levelMultiplier;
+
+	private final Random random = new Random(42);
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private HnswIndex(final File path, final int dimensions, final int m, final int efConstruction, final boolean readOnly)
+	        throws IOException {
+
+		this.path = path;
+		this.file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+		this.readOnly = readOnly;
+		this.channel = file.getChannel();
+		this.dimensions = dimensions;
+		this.m = m;
+		this.efConstruction = efConstruction;
+		this.vectorOffset = RECORD_LINKS + 16 * m;
+		this.recordSize = vectorOffset + 4 * dimensions;
+		this.levelMultiplier = 1 / Math.log(m);
+	}
+
+	/**
+	 * Open the graph stored in a file, or start an empty one if the file is missing, was written with other parameters
+	 * or was not committed after its last change.
+	 *
+	 * @param path
+	 * @param dimensions
+	 * @param m
+	 *            : links per node and level, typically 16
+	 * @param efConstruction
+	 *            : queue length when linking a new node, typically 100 to 200
+	 * @return
+	 * @throws IOException
+	 */
+	public static HnswIndex open(final File path, final int dimensions, final int m, final int efConstruction) throws IOException {
+
+		if (m < 2) {
+			throw new IllegalArgumentException("At least 2 links per node are needed: " + m);
+		}
+		final HnswIndex index = new HnswIndex(path, dimensions, m, efConstruction, false);
+		try {
+			if (index.load()) {
+				return index;
+			}
+		}
+		catch (IOException e) {
+			index.close();
+			throw e;
+		}
+		index.close();
+		return create(path, dimensions, m, efConstruction);
+	}
+
+	/**
+	 * Start an empty graph in place of the one stored in a file, if any.
+	 *
+	 * @param path
+	 * @param dimensions
+	 * @param m
+	 * @param efConstruction
+	 * @return
+	 * @throws IOException
+	 */
+	public static HnswIndex create(final File path, final int dimensions, final int m, final int efConstruction) throws IOException {
+
+		if (m < 2) {
+			throw new IllegalArgumentException("At least 2 links per node are needed: " + m);
+		}
+		// a new file leaves mappings of the old one intact; where it cannot be deleted it is truncated instead
+		path.delete();
+		final HnswIndex index = new HnswIndex(path, dimensions, m, efConstruction, false);
+		try {
+			index.reset();
+		}
+		catch (IOException e) {
+			index.close();
+			throw e;
+		}
+		return index;
+	}
+
+	/**
+	 * Open the graph stored in a file for searching only.
+	 *
+	 * @param path
+	 * @param dimensions
+	 * @param m
+	 * @return null if the file is missing, was written with other parameters or is being changed
+	 * @throws IOException
+	 */
+	public static HnswIndex openReadOnly(final File path, final int dimensions, final int m) throws IOException {
+
+		if (!path.isFile()) {
+			return null;
+		}
+		final HnswIndex index = new HnswIndex(path, dimensions, m, 0, true);
+		try {
+			if (index.load()) {
+				return index;
+			}
+		}
+		catch (IOException e) {
+			index.close();
+			throw e;
+		}
+		index.close();
+		return null;
+	}
+
+	/**
+	 * @return false if the file was committed again since it was opened, or is being changed
+	 */
+	public boolean isCurrent() {
+
+		lock.readLock().lock();
+		try {
+			return buffer.getInt(DIRTY) == 0 && buffer.getLong(INDEX_VERSION) == indexVersion;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the version passed to the last {@link #commit(long)}, -1 for a new graph
+	 */
+	public long getIndexVersion() {
+
+		return indexVersion;
+	}
+
+	/**
+	 * @return number of searchable nodes
+	 */
+	public int size() {
+
+		return size - numDeleted;
+	}
+
+	public int getNumDeleted() {
+
+		return numDeleted;
+	}
+
+	public int getDimensions() {
+
+		return dimensions;
+	}
+
+	/**
+	 * @param key
+	 * @return the node of a key, -1 if it is not in the graph
+	 */
+	public int getNode(final String key) {
+
+		final Integer node = nodes.get(key);
+		return node != null ? node : -1;
+	}
+
+	public String getKey(final int node) {
+
+		return keys.get(node);
+	}
+
+	/**
+	 * @return the keys of all searchable nodes
+	 */
+	public List<String> getKeys() {
+
+		return Lists.newArrayList(nodes.keySet());
+	}
+
+	/**
+	 * Add a vector under a key, replacing the vector the key had.
+	 *
+	 * @param key
+	 * @param vector
+	 *            : L2-normalized
+	 * @return the new node
+	 * @throws IOException
+	 */
+	public int add(final String key, final float[] vector) throws IOException {
+
+		if (vector.length != dimensions) {
+			throw new IllegalArgumentException("Expected " + dimensions + " dimensions: " + vector.length);
+		}
+		checkWritable();
+		lock.writeLock().lock();
+		try {
+			markDirty();
+			final Integer previous = nodes.get(key);
+			if (previous != null) {
+				setDeleted(previous);
+			}
+			if (size == capacity) {
+				map(capacity * 2);
+			}
+
+			final int node = size;
+			final int level = Math.min(TOP_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+			final int base = HEADER_SIZE + node * recordSize;
+			buffer.putInt(base, level);
+			buffer.putInt(base + 4, 0);
+			buffer.putInt(base + 8, 0);
+			for (int d = 0; d < dimensions; d++) {
+				buffer.putFloat(base + vectorOffset + 4 * d, vector[d]);
+			}
+			if (node == upper.length) {
+				upper = Arrays.copyOf(upper, Math.max(INITIAL_CAPACITY, upper.length * 2));
+			}
+			upper[node] = level > 0 ? new int[level * (2 * m + 1)] : null;
+			keys.add(key);
+			nodes.put(key, node);
+			size++;
+
+			link(node, level, vector);
+			return node;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stop returning the node of a key.
+	 *
+	 * @param key
+	 * @return false if the key is not in the graph
+	 * @throws IOException
+	 */
+	public boolean delete(final String key) throws IOException {
+
+		checkWritable();
+		lock.writeLock().lock();
+		try {
+			final Integer node = nodes.get(key);
+			if (node == null) {
+				return false;
+			}
+			markDirty();
+			setDeleted(node);
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Persist all changes.
+	 *
+	 * @param indexVersion
+	 *            : version of the index the graph now reflects
+	 * @throws IOException
+	 */
+	public void commit(final long indexVersion) throws IOException {
+
+		checkWritable();
+		lock.writeLock().lock();
+		try {
+			// keys and upper-level links after the records
+			final byte[][] bytes = new byte[size][];
+			long length = 0;
+			for (int node = 0; node < size; node++) {
+				bytes[node] = keys.get(node).getBytes(Charsets.UTF_8);
+				length += 4 + bytes[node].length + (upper[node] != null ? 4 * upper[node].length : 0);
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Too many keys to write: " + length + " bytes");
+			}
+			final ByteBuffer tail = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+			for (int node = 0; node < size; node++) {
+				tail.putInt(bytes[node].length).put(bytes[node]);
+				if (upper[node] != null) {
+					for (final int value : upper[node]) {
+						tail.putInt(value);
+					}
+				}
+			}
+			tail.flip();
+			final long tailOffset = HEADER_SIZE + (long) capacity * recordSize;
+			while (tail.hasRemaining()) {
+				channel.write(tail, tailOffset + tail.position());
+			}
+			channel.truncate(tailOffset + length);
+			channel.force(false);
+
+			buffer.putInt(SIZE, size);
+			buffer.putInt(ENTRY_POINT, entryPoint);
+			buffer.putInt(MAX_LEVEL, maxLevel);
+			buffer.putLong(INDEX_VERSION, indexVersion);
+			buffer.putLong(TAIL_LENGTH, length);
+			buffer.force();
+			buffer.putInt(DIRTY, 0);
+			buffer.force();
+			this.indexVersion = indexVersion;
+			this.dirty = false;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The k nodes with the highest dot product with a query.
+	 *
+	 * @param query
+	 *            : L2-normalized
+	 * @param k
+	 * @param ef
+	 *            : queue length on level 0, at least k; higher finds more of the true top k
+	 * @return nodes as doc ids with the dot product as score, best first
+	 */
+	public TopDocs search(final float[] query, final int k, final int ef) {
+
+		lock.readLock().lock();
+		try {
+			if (k <= 0 || size() == 0) {
+				return new TopDocs(0, new ScoreDoc[0], Float.NaN);
+			}
+			final Search search = new Search(Math.max(ef, k), 1);
+			final int node = descend(search, query, 0);
+			search.results.push(node, score(search, node, query));
+			searchLayer(search, query, 0, Math.max(ef, k), true);
+
+			final NodeQueue results = search.results;
+			while (results.size() > k) {
+				results.pop();
+			}
+			final ScoreDoc[] hits = new ScoreDoc[results.size()];
+			for (int i = hits.length - 1; i >= 0; i--) {
+				hits[i] = new ScoreDoc(results.topNode(), results.topScore());
+				results.pop();
+			}
+			return new TopDocs(hits.length, hits, hits.length > 0 ? hits[0].score : Float.NaN);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		// the mapping itself is released once it is garbage collected
+		file.close();
+	}
+
+	/**
+	 * @return false if there is no committed graph with these parameters
+	 */
+	private boolean load() throws IOException {
+
+		if (channel.size() < HEADER_SIZE) {
+			return false;
+		}
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT || header.getInt(DIMENSIONS) != dimensions || header.getInt(M) != m
+		    || header.getInt(DIRTY) != 0) {
+			return false;
+		}
+		capacity = header.getInt(CAPACITY);
+		size = header.getInt(SIZE);
+		entryPoint = header.getInt(ENTRY_POINT);
+		maxLevel = header.getInt(MAX_LEVEL);
+		indexVersion = header.getLong(INDEX_VERSION);
+		final long tailOffset = HEADER_SIZE + (long) capacity * recordSize;
+		final long length = header.getLong(TAIL_LENGTH);
+		if (channel.size() != tailOffset + length || length > Integer.MAX_VALUE) {
+			return false;
+		}
+		map(capacity);
+
+		final ByteBuffer tail = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(tail, tailOffset);
+		tail.flip();
+		upper = new int[Math.max(INITIAL_CAPACITY, capacity)][];
+		numDeleted = 0;
+		for (int node = 0; node < size; node++) {
+			final byte[] bytes = new byte[tail.getInt()];
+			tail.get(bytes);
+			final String key = new String(bytes, Charsets.UTF_8);
+			keys.add(key);
+			final int level = getLevel(node);
+			if (level > 0) {
+				upper[node] = new int[level * (2 * m + 1)];
+				for (int i = 0; i < upper[node].length; i++) {
+					upper[node][i] = tail.getInt();
+				}
+			}
+			if (isDeleted(node)) {
+				numDeleted++;
+			} else {
+				nodes.put(key, node);
+			}
+		}
+		dirty = false;
+		return true;
+	}
+
+	private void checkWritable() {
+
+		if (readOnly) {
+			throw new IllegalStateException("Graph is open read-only: " + path);
+		}
+	}
+
+	private void readFully(final ByteBuffer target, final long position) throws IOException {
+
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position()) < 0) {
+				throw new IOException("Unexpected end of graph file");
+			}
+		}
+	}
+
+	private void reset() throws IOException {
+
+		channel.truncate(0);
+		capacity = 0;
+		size = 0;
+		entryPoint = -1;
+		maxLevel = -1;
+		indexVersion = -1;
+		numDeleted = 0;
+		upper = new int[INITIAL_CAPACITY][];
+		keys.clear();
+		nodes.clear();
+		map(INITIAL_CAPACITY);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, FORMAT);
+		buffer.putInt(DIMENSIONS, dimensions);
+		buffer.putInt(M, m);
+		dirty = false;
+		markDirty();
+	}
+
+	/**
+	 * Map the header and the records of a number of nodes, growing the file if needed.
+	 */
+	private void map(final int newCapacity) throws IOException {
+
+		final long length = HEADER_SIZE + (long) newCapacity * recordSize;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Graph too large to map: " + newCapacity + " nodes");
+		}
+		buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		floats = buffer.asFloatBuffer();
+		capacity = newCapacity;
+		if (!readOnly) {
+			buffer.putInt(CAPACITY, capacity);
+		}
+	}
+
+	private void markDirty() {
+
+		if (!dirty) {
+			buffer.putInt(DIRTY, 1);
+			buffer.force();
+			dirty = true;
+		}
+	}
+
+	private void setDeleted(final int node) {
+
+		buffer.putInt(HEADER_SIZE + node * recordSize + 4, 1);
+		nodes.remove(keys.get(node));
+		numDeleted++;
+	}
+
+	private boolean isDeleted(final int node) {
+
+		return buffer.getInt(HEADER_SIZE + node * recordSize + 4) != 0;
+	}
+
+	private int getLevel(final int node) {
+
+		return buffer.getInt(HEADER_SIZE + node * recordSize);
+	}
+
+	private int getLinkCount(final int node, final int level) {
+
+		if (level == 0) {
+			return buffer.getInt(HEADER_SIZE + node * recordSize + 8);
+		}
+		return upper[node][(level - 1) * (2 * m + 1)];
+	}
+
+	private int getLink(final int node, final int level, final int i) {
+
+		if (level == 0) {
+			return buffer.getInt(HEADER_SIZE + node * recordSize + RECORD_LINKS + 4 * i);
+		}
+		return upper[node][(level - 1) * (2 * m + 1) + 1 + i];
+	}
+
+	private float getLinkScore(final int node, final int level, final int i) {
+
+		if (level == 0) {
+			return buffer.getFloat(HEADER_SIZE + node * recordSize + RECORD_LINKS + 8 * m + 4 * i);
+		}
+		return Float.intBitsToFloat(upper[node][(level - 1) * (2 * m + 1) + 1 + m + i]);
+	}
+
+	private void setLink(final int node, final int level, final int i, final int link, final float score) {
+
+		if (level == 0) {
+			final int base = HEADER_SIZE + node * recordSize + RECORD_LINKS;
+			buffer.putInt(base + 4 * i, link);
+			buffer.putFloat(base + 8 * m + 4 * i, score);
+		} else {
+			final int offset = (level - 1) * (2 * m + 1) + 1;
+			upper[node][offset + i] = link;
+			upper[node][offset + m + i] = Float.floatToRawIntBits(score);
+		}
+	}
+
+	private void setLinkCount(final int node, final int level, final int count) {
+
+		if (level == 0) {
+			buffer.putInt(HEADER_SIZE + node * recordSize + 8, count);
+		} else {
+			upper[node][(level - 1) * (2 * m + 1)] = count;
+		}
+	}
+
+	private int getMaxLinks(final int level) {
+
+		return level == 0 ? 2 * m : m;
+	}
+
+	/**
+	 * Copy the vector of a node into search.vectors at a slot.
+	 */
+	private float[] read(final Search search, final int node, final int slot) {
+
+		final FloatBuffer view = search.floats;
+		view.position((HEADER_SIZE + node * recordSize + vectorOffset) >> 2);
+		view.get(search.vectors, slot * dimensions, dimensions);
+		return search.vectors;
+	}
+
+	private float score(final Search search, final int node, final float[] query) {
+
+		return kernels.dot(read(search, node, 0), 0, query, 0, dimensions);
+	}
+
+	/**
+	 * Greedy search from the entry point down to the level above a target level.
+	 *
+	 * @return the node closest to the query on the last level visited
+	 */
+	private int descend(final Search search, final float[] query, final int toLevel) {
+
+		int node = entryPoint;
+		float best = score(search, node, query);
+		for (int level = maxLevel; level > toLevel; level--) {
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int i = 0; i < getLinkCount(node, level); i++) {
+					final int next = getLink(node, level, i);
+					final float score = score(search, next, query);
+					if (score > best) {
+						best = score;
+						node = next;
+						changed = true;
+					}
+				}
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Best-first search on one level, starting from the nodes in search.results, which end up holding the ef nodes
+	 * closest to the query.
+	 *
+	 * @param skipDeleted
+	 *            : keep deleted nodes out of the results; they are still traversed
+	 */
+	private void searchLayer(final Search search, final float[] query, final int level, final int ef, final boolean skipDeleted) {
+
+		final NodeQueue results = search.results;
+		final NodeQueue candidates = search.candidates;
+		final FixedBitSet visited = search.visited;
+		candidates.clear();
+		visited.clear(0, visited.length());
+		for (int i = 0; i < results.size(); i++) {
+			candidates.push(results.nodes[i], -results.scores[i]);
+			visited.set(results.nodes[i]);
+		}
+		if (skipDeleted) {
+			// entry points found on upper levels may be deleted
+			results.clear();
+			for (int i = 0; i < candidates.size(); i++) {
+				if (!isDeleted(candidates.nodes[i])) {
+					results.push(candidates.nodes[i], -candidates.scores[i]);
+				}
+			}
+		}
+
+		while (candidates.size() > 0) {
+			final int node = candidates.topNode();
+			final float score = -candidates.topScore();
+			if (results.size() >= ef && score < results.topScore()) {
+				break;
+			}
+			candidates.pop();
+			for (int i = 0; i < getLinkCount(node, level); i++) {
+				final int next = getLink(node, level, i);
+				// a read-only mapping may see links another process made to nodes added after it was opened
+				if (next >= size || visited.get(next)) {
+					continue;
+				}
+				visited.set(next);
+				final float nextScore = score(search, next, query);
+				if (results.size() < ef || nextScore > results.topScore()) {
+					candidates.push(next, -nextScore);
+					if (!skipDeleted || !isDeleted(next)) {
+						results.push(next, nextScore);
+						if (results.size() > ef) {
+							results.pop();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Link a new node on every level up to its own.
+	 */
+	private void link(final int node, final int level, final float[] vector) {
+
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return;
+		}
+		final Search search = new Search(Math.max(efConstruction, 2 * m + 1), 2 * m + 2);
+		final int start = descend(search, vector, level);
+		search.results.push(start, score(search, start, vector));
+		final float[] scores = new float[Math.max(efConstruction, 2 * m + 1)];
+		final int[] candidates = new int[scores.length];
+		for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+			searchLayer(search, vector, l, efConstruction, false);
+
+			// closest first
+			final NodeQueue results = search.results;
+			final int n = results.size();
+			final NodeQueue sorted = new NodeQueue(n);
+			for (int i = 0; i < n; i++) {
+				sorted.push(results.nodes[i], results.scores[i]);
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				candidates[i] = sorted.topNode();
+				scores[i] = sorted.topScore();
+				sorted.pop();
+			}
+			final int count = select(search, node, l, candidates, scores, n);
+			for (int i = 0; i < count; i++) {
+				addLink(search, getLink(node, l, i), l, node, getLinkScore(node, l, i));
+			}
+		}
+		if (level > maxLevel) {
+			maxLevel = level;
+			entryPoint = node;
+		}
+	}
+
+	/**
+	 * Link from a node to a new neighbour. A node with too many links drops one, see {@link #prune(Search, int, int)}.
+	 */
+	private void addLink(final Search search, final int node, final int level, final int neighbour, final float score) {
+
+		final int count = getLinkCount(node, level);
+		// keep the links sorted, most similar first
+		int i = count;
+		while (i > 0 && getLinkScore(node, level, i - 1) < score) {
+			if (i < getMaxLinks(level)) {
+				setLink(node, level, i, getLink(node, level, i - 1), getLinkScore(node, level, i - 1));
+			} else {
+				search.spareLink = getLink(node, level, i - 1);
+				search.spareScore = getLinkScore(node, level, i - 1);
+			}
+			i--;
+		}
+		if (count < getMaxLinks(level)) {
+			setLink(node, level, i, neighbour, score);
+			setLinkCount(node, level, count + 1);
+		} else if (i < count) {
+			setLink(node, level, i, neighbour, score);
+			prune(search, node, level);
+		} else {
+			search.spareLink = neighbour;
+			search.spareScore = score;
+			prune(search, node, level);
+		}
+	}
+
+	/**
+	 * Drop one of the links of a node plus search.spareLink, the least similar: the least similar link that is closer to
+	 * a more similar link than to the node, as the selection heuristic would skip it, or else the least similar link.
+	 */
+	private void prune(final Search search, final int node, final int level) {
+
+		final int max = getMaxLinks(level);
+		for (int i = max; i > 0; i--) {
+			final int link = i < max ? getLink(node, level, i) : search.spareLink;
+			final float score = i < max ? getLinkScore(node, level, i) : search.spareScore;
+			read(search, link, 1);
+			for (int j = 0; j < i; j++) {
+				read(search, getLink(node, level, j), 2);
+				if (kernels.dot(search.vectors, dimensions, search.vectors, 2 * dimensions, dimensions) > score) {
+					// drop link i: shift the less similar ones up
+					for (int k = i; k < max - 1; k++) {
+						setLink(node, level, k, getLink(node, level, k + 1), getLinkScore(node, level, k + 1));
+					}
+					if (i < max) {
+						setLink(node, level, max - 1, search.spareLink, search.spareScore);
+					}
+					return;
+				}
+			}
+		}
+		// all diverse: the spare, the least similar, is dropped
+	}
+
+	/**
+	 * Neighbour selection heuristic: take candidates closest first, skipping one that is closer to an already selected
+	 * neighbour than to the new node, then fill up with the skipped ones. The links are written to the new node.
+	 *
+	 * @param candidates
+	 *            : closest first
+	 * @param scores
+	 *            : similarity of each candidate to the new node
+	 * @return number of links
+	 */
+	private int select(final Search search, final int node, final int level, final int[] candidates, final float[] scores, final int n) {
+
+		final int max = getMaxLinks(level);
+		int count = 0;
+		final boolean[] skipped = new boolean[n];
+		for (int i = 0; i < n && count < max; i++) {
+			// the candidate goes to the slot after the selected ones
+			read(search, candidates[i], count + 1);
+			boolean diverse = true;
+			for (int j = 0; j < count && diverse; j++) {
+				diverse = kernels.dot(search.vectors, (count + 1) * dimensions, search.vectors, (j + 1) * dimensions, dimensions) <= scores[i];
+			}
+			if (diverse) {
+				setLink(node, level, count++, candidates[i], scores[i]);
+			} else {
+				skipped[i] = true;
+			}
+		}
+		for (int i = 0; i < n && count < max; i++) {
+			if (skipped[i]) {
+				setLink(node, level, count++, candidates[i], scores[i]);
+			}
+		}
+		setLinkCount(node, level, count);
+		return count;
+	}
+
+	/**
+	 * Scratch space of one search.
+	 */
+	private final class Search {
+
+		private final FloatBuffer floats = HnswIndex.this.floats.duplicate();
+
+		/** slot 0: the node being scored, slots 1..: selected neighbours */
+		private final float[] vectors;
+
+		private final FixedBitSet visited = new FixedBitSet(size);
+
+		private final NodeQueue results;
+
+		private final NodeQueue candidates;
+
+		/** a link that no longer fits into a full link list */
+		private int spareLink;
+
+		private float spareScore;
+
+		Search(final int ef, final int slots) {
+
+			vectors = new float[slots * dimensions];
+			results = new NodeQueue(ef + 1);
+			candidates = new NodeQueue(ef + 1);
+		}
+	}
+
+	/**
+	 * Binary min-heap of nodes by score, growing as needed.
+	 */
+	private static final class NodeQueue {
+
+		private int[] nodes;
+
+		private float[] scores;
+
+		private int size;
+
+		NodeQueue(final int capacity) {
+
+			nodes = new int[Math.max(1, capacity)];
+			scores = new float[nodes.length];
+		}
+
+		int size() {
+
+			return size;
+		}
+
+		int topNode() {
+
+			return nodes[0];
+		}
+
+		float topScore() {
+
+			return scores[0];
+		}
+
+		void clear() {
+
+			size = 0;
+		}
+
+		void push(final int node, final float score) {
+
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				scores = Arrays.copyOf(scores, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				final int parent = (i - 1) >>> 1;
+				if (scores[parent] <= score) {
+					break;
+				}
+				nodes[i] = nodes[parent];
+				scores[i] = scores[parent];
+				i = parent;
+			}
+			nodes[i] = node;
+			scores[i] = score;
+		}
+
+		void pop() {
+
+			final int node = nodes[--size];
+			final float score = scores[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && scores[child + 1] < scores[child]) {
+					child++;
+				}
+				if (scores[child] >= score) {
+					break;
+				}
+				nodes[i] = nodes[child];
+				scores[i] = scores[child];
+				i = child;
+			}
+			nodes[i] = node;
+			scores[i] = score;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Fingerprint of the source file an index was built from (path, size, mtime and SHA-1 of the content) and of the
+ * {@link IndexSchema} it was built with. It is stored in
+ * the commit user-data of the index so that {@link SearchEngineUtils#indexFile(String)} can skip ingestion when the
+ * same, unchanged file is indexed again. The content is only hashed when path and size match the indexed file; a
+ * fingerprint without SHA-1 is compared by mtime.
+ */
+public class IndexFingerprint {
+
+	static final String SOURCE_PATH = "source.path";
+
+	static final String SOURCE_SIZE = "source.size";
+
+	static final String SOURCE_MTIME = "source.mtime";
+
+	static final String SOURCE_SHA1 = "source.sha1";
+
+	static final String SCHEMA = "index.schema";
+
+	/**
+	 * Compute the fingerprint of a source file. Reading the whole file for its SHA-1 is only worth it if it can be the
+	 * indexed one, i.e. path and size are the same; otherwise it is left out.
+	 * 
+	 * @param srcFile
+	 * @param indexed
+	 *            : fingerprint from the index commit, see {@link #current()}
+	 * @return
+	 * @throws IOException
+	 */
+	public static Map<String, String> compute(final String srcFile, final Map<String, String> indexed) throws IOException {
+
+		final File file = new File(srcFile);
+		final Map<String, String> fingerprint = Maps.newHashMap();
+		fingerprint.put(SOURCE_PATH, file.getCanonicalPath());
+		fingerprint.put(SOURCE_SIZE, String.valueOf(file.length()));
+		fingerprint.put(SOURCE_MTIME, String.valueOf(file.lastModified()));
+		if (fingerprint.get(SOURCE_PATH).equals(indexed.get(SOURCE_PATH)) && fingerprint.get(SOURCE_SIZE).equals(indexed.get(SOURCE_SIZE))) {
+			fingerprint.put(SOURCE_SHA1, Files.hash(file, Hashing.sha1()).toString());
+		}
+		fingerprint.put(SCHEMA, IndexSchema.getInstance().getSignature());
+		return fingerprint;
+	}
+
+	/**
+	 * Get the fingerprint recorded in the current index commit, or an empty map if there is no index or it was built
+	 * without one.
+	 * 
+	 * @return
+	 */
+	public static Map<String, String> current() {
+
+		Map<String, String> userData = Maps.newHashMap();
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
+			if (reader instanceof DirectoryReader) {
+				userData = ((DirectoryReader) reader).getIndexCommit().getUserData();
+			}
+		}
+		catch (IOException e) {
+			// no index yet
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return userData;
+	}
+
+	/**
+	 * Whether the index was built from the same content. If the index recorded a SHA-1 the mtime is informational
+	 * only: a file that was touched but not changed still matches. Otherwise the mtime must be the same.
+	 * 
+	 * @param indexed
+	 *            : fingerprint from the index commit
+	 * @param source
+	 *            : fingerprint of the source file
+	 * @return
+	 */
+	public static boolean matches(final Map<String, String> indexed, final Map<String, String> source) {
+
+		final String content = indexed.get(SOURCE_SHA1) != null ? SOURCE_SHA1 : SOURCE_MTIME;
+		for (final String key : new String[] { SOURCE_PATH, SOURCE_SIZE, content, SCHEMA }) {
+			if (indexed.get(key) == null || !indexed.get(key).equals(source.get(key))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
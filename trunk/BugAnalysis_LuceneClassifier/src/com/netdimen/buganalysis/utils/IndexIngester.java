@@ -0,0 +1,242 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Turn spreadsheet rows into Lucene documents and hand them to an {@link IndexWriter}. Every document carries a key
+ * (the "Ticket Id" column, or the row hash if a row has no id) and a revision (key + row hash). In incremental mode a
+ * row whose revision is already indexed is skipped and a row with a known key but a new revision replaces the old
+ * document. Keys that no longer appear in the source are only deleted when the ingester is closed if
+ * {@link #setDeleteMissing(boolean)} is set: a source holding only the latest tickets would otherwise empty the index.
+ * 
+ * {@link #add(List, List)} may be called from several threads at once; IndexWriter is thread-safe.
+ */
+class IndexIngester implements Closeable {
+
+	private final IndexWriter writer;
+
+	private final IndexSchema schema = IndexSchema.getInstance();
+
+	private final boolean incremental;
+
+	private DirectoryReader previous = null;
+
+	private final Set<String> seenKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicInteger added = new AtomicInteger();
+
+	private final AtomicInteger updated = new AtomicInteger();
+
+	private final AtomicInteger unchanged = new AtomicInteger();
+
+	private int deleted = 0;
+
+	private boolean deleteMissing = false;
+
+	private Map<String, String> commitData = null;
+
+	IndexIngester(final IndexWriter writer, final boolean incremental) throws IOException {
+
+		this.writer = writer;
+		boolean canUpdate = false;
+		if (incremental && DirectoryReader.indexExists(writer.getDirectory())) {
+			previous = DirectoryReader.open(writer.getDirectory());
+			final Terms terms = MultiFields.getTerms(previous, SearchEngineUtils.REVISION_FIELD);
+			if (terms != null) {
+				canUpdate = true;
+			} else if (previous.numDocs() > 0) {
+				// index was built before documents were keyed: nothing to match against, rebuild it
+				System.out.println(">>>Index has no document keys, rebuilding");
+			}
+		}
+
+		this.incremental = canUpdate;
+		if (!canUpdate) {
+			writer.deleteAll();
+		}
+	}
+
+	/**
+	 * Index one row. Empty values are skipped; extra values without a field name are ignored.
+	 *
+	 * @param fields
+	 *            : column names (row 0)
+	 * @param values
+	 *            : cell values of this row
+	 * @throws IOException
+	 */
+	void add(final List<String> fields, final List<String> values) throws IOException {
+
+		final Document doc = new Document();
+		// a schema change alters every document, so it is part of the revision
+		final Hasher hasher = Hashing.murmur3_128().newHasher().putString(schema.getSignature(), Charsets.UTF_8);
+		String id = null;
+		for (int j = 0; j < fields.size() && j < values.size(); j++) {
+			final String field = fields.get(j);
+			final String value = values.get(j);
+			if (value != null && !value.equals("")) {
+				schema.addFields(doc, field, value);
+				hasher.putString(field, Charsets.UTF_8).putString(value, Charsets.UTF_8);
+				if (field.equals(SearchEngineUtils.ID_FIELD)) {
+					id = value.trim();
+				}
+			}
+		}
+
+		final String hash = hasher.hash().toString();
+		final String key = (id != null && !id.equals("")) ? id : "#" + hash;
+		final String revision = key + ":" + hash;
+		doc.add(new StringField(SearchEngineUtils.KEY_FIELD, key, Field.Store.NO));
+		doc.add(new StringField(SearchEngineUtils.REVISION_FIELD, revision, Field.Store.NO));
+
+		if (!incremental) {
+			writer.addDocument(doc);
+			added.incrementAndGet();
+		} else {
+			final boolean seenBefore = !seenKeys.add(key);
+			if (!seenBefore && isIndexed(SearchEngineUtils.REVISION_FIELD, revision)) {
+				unchanged.incrementAndGet();
+				return;
+			}
+			// even a new key is replaced rather than added: another thread may be indexing a row with the same key, and
+			// only updateDocument deletes and adds in one step
+			writer.updateDocument(new Term(SearchEngineUtils.KEY_FIELD, key), doc);
+			if (seenBefore || isIndexed(SearchEngineUtils.KEY_FIELD, key)) {
+				updated.incrementAndGet();
+			} else {
+				added.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * User-data to record with the final commit, e.g. the source {@link IndexFingerprint}.
+	 * 
+	 * @param commitData
+	 */
+	void setCommitData(final Map<String, String> commitData) {
+
+		this.commitData = commitData;
+	}
+
+	/**
+	 * Delete indexed documents whose key is not in this run's rows when the ingester is closed, for sources that are
+	 * a full export rather than the latest changes.
+	 * 
+	 * @param deleteMissing
+	 */
+	void setDeleteMissing(final boolean deleteMissing) {
+
+		this.deleteMissing = deleteMissing;
+	}
+
+	int getAdded() {
+
+		return added.get();
+	}
+
+	int getUpdated() {
+
+		return updated.get();
+	}
+
+	int getUnchanged() {
+
+		return unchanged.get();
+	}
+
+	int getDeleted() {
+
+		return deleted;
+	}
+
+	private boolean isIndexed(final String field, final String value) throws IOException {
+
+		return previous.docFreq(new Term(field, value)) > 0;
+	}
+
+	/**
+	 * Delete documents whose key was not seen in this run if asked to, commit and close the writer and its directory.
+	 *
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			if (incremental) {
+				final Terms keys = deleteMissing ? MultiFields.getTerms(previous, SearchEngineUtils.KEY_FIELD) : null;
+				if (keys != null) {
+					final TermsEnum keysEnum = keys.iterator(null);
+					BytesRef bytesRef = null;
+					while ((bytesRef = keysEnum.next()) != null) {
+						final String key = bytesRef.utf8ToString();
+						if (!seenKeys.contains(key)) {
+							writer.deleteDocuments(new Term(SearchEngineUtils.KEY_FIELD, key));
+							deleted++;
+						}
+					}
+				}
+				if (deleted > 0 || updated.get() > 0) {
+					// term statistics count deleted documents until their segments are merged away
+					writer.forceMergeDeletes();
+				}
+			}
+			// always overwrite: user-data of the previous commit would otherwise be carried over
+			writer.setCommitData(commitData != null ? commitData : new HashMap<String, String>());
+			writer.commit();
+			System.out.println(">>>Index statistics: added=" + added + ";updated=" + updated + ";unchanged=" + unchanged + ";deleted="
+			                   + deleted);
+		}
+		finally {
+			final Directory directory = writer.getDirectory();
+			writer.close();
+			directory.close();
+			if (previous != null) {
+				previous.close();
+			}
+		}
+	}
+
+	/**
+	 * Discard everything added since the last commit and release the writer, e.g. when reading the source failed.
+	 * 
+	 * @throws IOException
+	 */
+	void abort() throws IOException {
+
+		final Directory directory = writer.getDirectory();
+		try {
+			writer.rollback();
+		}
+		finally {
+			directory.close();
+			if (previous != null) {
+				previous.close();
+			}
+		}
+	}
+}
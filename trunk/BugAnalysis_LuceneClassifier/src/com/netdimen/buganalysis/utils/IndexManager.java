@@ -0,0 +1,310 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.google.common.collect.Lists;
+import com.netdimen.buganalysis.config.Config;
+
+/**
+ * Shared, reference-counted access to the bug report index. Read paths acquire a searcher here instead of opening the
+ * index directory on every call, and must hand it back with {@link #release(IndexSearcher)} once done. Writers call
+ * {@link #refresh()} after a commit so that later acquires see the new documents.
+ *
+ * Full rebuilds never touch the live index. They are written into a fresh generation directory (gen_N under
+ * Config.directoryPath) and made live by {@link #publish(File)}, which atomically replaces the CURRENT pointer file.
+ * The previously live generation is kept for {@link #rollback()}; older ones are deleted. If there is no CURRENT file
+ * the index is read directly from Config.directoryPath, as before generations were introduced.
+ */
+public class IndexManager {
+
+	private static final String CURRENT = "CURRENT";
+
+	private static final String GENERATION_PREFIX = "gen_";
+
+	private static Directory directory = null;
+
+	private static File managedDirectory = null;
+
+	private static SearcherManager searcherManager = null;
+
+	private static volatile File root = new File(Config.directoryPath);
+
+	/**
+	 * Get the shared searcher manager, opening the live index on first use.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized SearcherManager getSearcherManager() throws IOException {
+
+		if (searcherManager == null) {
+			final File live = getIndexDirectory();
+			final Directory dir = FSDirectory.open(live);
+			try {
+				searcherManager = new SearcherManager(dir, null);
+			}
+			catch (IOException e) {
+				dir.close();
+				throw e;
+			}
+			directory = dir;
+			managedDirectory = live;
+		}
+		return searcherManager;
+	}
+
+	/**
+	 * Acquire the current searcher. Every successful call must be paired with {@link #release(IndexSearcher)}.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static IndexSearcher acquire() throws IOException {
+
+		return getSearcherManager().acquire();
+	}
+
+	/**
+	 * Release a searcher obtained from {@link #acquire()}. Null is ignored so that callers can release in a finally
+	 * block. The reader is dereferenced directly, so this stays safe even if the manager was closed in the meantime.
+	 *
+	 * @param searcher
+	 */
+	public static void release(final IndexSearcher searcher) {
+
+		if (searcher == null) {
+			return;
+		}
+
+		try {
+			searcher.getIndexReader().decRef();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Shortcut for read paths that only need the reader.
+	 *
+	 * @param reader
+	 */
+	public static void release(final IndexReader reader) {
+
+		if (reader == null) {
+			return;
+		}
+
+		try {
+			reader.decRef();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Make the latest commit visible to subsequent acquires, switching over if another generation was published in the
+	 * meantime. Does nothing if the index has not been opened yet.
+	 *
+	 */
+	public static synchronized void refresh() {
+
+		if (searcherManager != null) {
+			try {
+				if (!getIndexDirectory().equals(managedDirectory)) {
+					close();
+				} else {
+					searcherManager.maybeRefreshBlocking();
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Close the shared searcher. Searchers that are still acquired stay usable until released; the next acquire
+	 * reopens the live index.
+	 *
+	 */
+	public static synchronized void close() {
+
+		if (searcherManager != null) {
+			try {
+				searcherManager.close();
+				directory.close();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+			searcherManager = null;
+			directory = null;
+			managedDirectory = null;
+		}
+	}
+
+	/**
+	 * Get the directory of the live index generation.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static File getIndexDirectory() throws IOException {
+
+		final String[] pointer = readPointer();
+		return pointer.length > 0 ? new File(getRoot(), pointer[0]) : getRoot();
+	}
+
+	/**
+	 * Create an empty directory for the next index generation. It is not visible to readers until published.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized File newGeneration() throws IOException {
+
+		int max = 0;
+		final File[] files = getRoot().listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				max = Math.max(max, generationNumber(file));
+			}
+		}
+
+		final File generation = new File(getRoot(), GENERATION_PREFIX + (max + 1));
+		FileUtils.forceMkdir(generation);
+		return generation;
+	}
+
+	/**
+	 * Atomically make a fully built generation the live index. The generation it replaces is kept for
+	 * {@link #rollback()}; older generations and files of a pre-generation index are deleted once nothing new can be
+	 * opened on them (searchers that are still acquired keep their open files).
+	 *
+	 * @param generation
+	 * @throws IOException
+	 */
+	public static synchronized void publish(final File generation) throws IOException {
+
+		final String[] pointer = readPointer();
+		final String previous = pointer.length > 0 ? pointer[0] : null;
+		writePointer(generation.getName(), previous);
+		close();
+
+		final File[] files = getRoot().listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				final String name = file.getName();
+				if (name.equals(CURRENT) || name.equals(generation.getName()) || name.equals(previous)) {
+					continue;
+				}
+				if (file.isDirectory() && generationNumber(file) == 0) {
+					continue; // not ours
+				}
+				FileUtils.deleteQuietly(file);
+			}
+		}
+		System.out.println(">>>Index generation published: " + generation.getName());
+	}
+
+	/**
+	 * Delete a generation that failed to build.
+	 *
+	 * @param generation
+	 */
+	public static void discard(final File generation) {
+
+		FileUtils.deleteQuietly(generation);
+	}
+
+	/**
+	 * Make the previously published generation live again. Calling it twice rolls forward.
+	 *
+	 * @return false if there is no previous generation to go back to
+	 * @throws IOException
+	 */
+	public static synchronized boolean rollback() throws IOException {
+
+		final String[] pointer = readPointer();
+		if (pointer.length < 2 || !new File(getRoot(), pointer[1]).isDirectory()) {
+			return false;
+		}
+
+		writePointer(pointer[1], pointer[0]);
+		close();
+		System.out.println(">>>Index generation rolled back to: " + pointer[1]);
+		return true;
+	}
+
+	private static File getRoot() {
+
+		return root;
+	}
+
+	/**
+	 * Manage the generations under another directory instead of Config.directoryPath, closing the shared searcher.
+	 * For tests.
+	 *
+	 * @param dir
+	 */
+	static synchronized void setRoot(final File dir) {
+
+		close();
+		root = dir;
+	}
+
+	private static int generationNumber(final File file) {
+
+		final String name = file.getName();
+		if (file.isDirectory() && name.startsWith(GENERATION_PREFIX)) {
+			try {
+				return Integer.parseInt(name.substring(GENERATION_PREFIX.length()));
+			}
+			catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return [live generation, previous generation], shorter if not recorded
+	 */
+	private static String[] readPointer() throws IOException {
+
+		final File current = new File(getRoot(), CURRENT);
+		if (!current.exists()) {
+			return new String[0];
+		}
+
+		final List<String> pointer = Lists.newArrayList();
+		for (final String line : Files.readAllLines(current.toPath(), StandardCharsets.UTF_8)) {
+			if (!line.trim().equals("") && pointer.size() < 2) {
+				pointer.add(line.trim());
+			}
+		}
+		return pointer.toArray(new String[pointer.size()]);
+	}
+
+	private static void writePointer(final String live, final String previous) throws IOException {
+
+		final File tmp = new File(getRoot(), CURRENT + ".tmp");
+		final String content = live + "\n" + (previous != null ? previous + "\n" : "");
+		Files.write(tmp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), new File(getRoot(), CURRENT).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
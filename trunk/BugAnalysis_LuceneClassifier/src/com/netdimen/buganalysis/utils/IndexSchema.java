@@ -0,0 +1,155 @@
+package com.netdimen.buganalysis.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.collect.Maps;
+import com.netdimen.buganalysis.config.Config;
+
+/**
+ * Per-column index schema, read from config.properties:
+ * 
+ * <pre>
+ * bug.analysis.index.schema.default=stored,analyzed
+ * bug.analysis.index.schema.Subject=stored,analyzed,vectors,minhash
+ * bug.analysis.index.schema.Ticket\ Id=stored,keyword,docvalues
+ * </pre>
+ * 
+ * Flags: "stored" keeps the value for display, "analyzed" indexes it as full text, "keyword" indexes it as a single
+ * untokenized term, "docvalues" adds a sorted doc-values field and "vectors" stores term vectors with positions and
+ * offsets (needed by {@link SimilarityUtils}); "minhash" stores a {@link MinHash} signature of the analyzed tokens for
+ * near-duplicate detection. A column with neither "analyzed" nor "keyword" is not searchable.
+ * Columns without an entry use the default, which falls back to the old stored/analyzed/vectors behaviour if it is not
+ * configured either.
+ */
+public class IndexSchema {
+
+	public static final String PREFIX = "bug.analysis.index.schema.";
+
+	public static final String DEFAULT_COLUMN = "default";
+
+	private static final String LEGACY_DEFAULT = "stored,analyzed,vectors";
+
+	private static final IndexSchema instance = new IndexSchema(Config.getInstance().getPropertiesWithPrefix(PREFIX));
+
+	private final FieldSpec defaultSpec;
+
+	private final Map<String, FieldSpec> specs = Maps.newHashMap();
+
+	private final String signature;
+
+	public static IndexSchema getInstance() {
+
+		return instance;
+	}
+
+	/**
+	 * @param columns
+	 *            : column name (or "default") -> comma separated flags
+	 */
+	public IndexSchema(final Map<String, String> columns) {
+
+		final TreeMap<String, String> sorted = new TreeMap<String, String>(columns);
+		if (!sorted.containsKey(DEFAULT_COLUMN)) {
+			sorted.put(DEFAULT_COLUMN, LEGACY_DEFAULT);
+		}
+		for (final Map.Entry<String, String> entry : sorted.entrySet()) {
+			specs.put(entry.getKey(), new FieldSpec(entry.getKey(), entry.getValue()));
+		}
+		defaultSpec = specs.get(DEFAULT_COLUMN);
+		signature = sorted.toString();
+	}
+
+	/**
+	 * Stable description of the schema. Recorded with the index so that a schema change forces a re-index.
+	 * 
+	 * @return
+	 */
+	public String getSignature() {
+
+		return signature;
+	}
+
+	/**
+	 * Add the Lucene fields for one cell to a document.
+	 * 
+	 * @param doc
+	 * @param column
+	 * @param value
+	 */
+	public void addFields(final Document doc, final String column, final String value) {
+
+		final FieldSpec spec = specs.containsKey(column) ? specs.get(column) : defaultSpec;
+		if (spec.type.indexed() || spec.type.stored()) {
+			doc.add(new Field(column, value, spec.type));
+		}
+		if (spec.docValues) {
+			doc.add(new SortedDocValuesField(column, new BytesRef(value)));
+		}
+		if (spec.minHash) {
+			final int[] signature = MinHash.signature(value);
+			if (signature != null) {
+				doc.add(new BinaryDocValuesField(MinHash.getField(column), MinHash.toBytes(signature)));
+			}
+		}
+	}
+
+	private static class FieldSpec {
+
+		private final FieldType type = new FieldType();
+
+		private boolean docValues = false;
+
+		private boolean minHash = false;
+
+		FieldSpec(final String column, final String flags) {
+
+			boolean analyzed = false;
+			boolean keyword = false;
+			boolean vectors = false;
+			for (final String flag : flags.split(",")) {
+				final String name = flag.trim().toLowerCase();
+				if (name.equals("stored")) {
+					type.setStored(true);
+				} else if (name.equals("analyzed")) {
+					analyzed = true;
+				} else if (name.equals("keyword")) {
+					keyword = true;
+				} else if (name.equals("docvalues")) {
+					docValues = true;
+				} else if (name.equals("vectors")) {
+					vectors = true;
+				} else if (name.equals("minhash")) {
+					minHash = true;
+				} else if (!name.equals("")) {
+					throw new IllegalArgumentException("Unknown schema flag '" + name + "' for column " + column);
+				}
+			}
+
+			if (analyzed && keyword) {
+				throw new IllegalArgumentException("Column " + column + " cannot be both analyzed and keyword");
+			}
+
+			type.setIndexed(analyzed || keyword);
+			type.setTokenized(analyzed);
+			if (keyword) {
+				type.setOmitNorms(true);
+				type.setIndexOptions(IndexOptions.DOCS_ONLY);
+			}
+			if (vectors && type.indexed()) {
+				type.setStoreTermVectors(true);
+				type.setStoreTermVectorPositions(true);
+				type.setStoreTermVectorOffsets(true);
+			}
+			type.freeze();
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package com.netdimen.buganalysis.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Spherical k-means over the sparse TF-IDF rows of a {@link MappedTfIdfModel}: documents and centroids are compared by
+ * cosine similarity, and every centroid is the normalized mean of its documents. Seeds are picked with k-means++:
+ * after the first random document, each next seed is drawn with probability proportional to 1 - the cosine to the
+ * nearest seed so far, which is proportional to the squared Euclidean distance between unit vectors.
+ *
+ * Centroids are dense and stored term-major, [term * k + cluster], so scoring a document against all centroids adds
+ * one contiguous run of k floats per term of the document. Seeding and the assignment step run on a
+ * {@link ForkJoinPool} in blocks of {@link #ROWS_PER_TASK} documents; the centroid update accumulates into a second
+ * centroid array that is swapped with the first, so iterations do not allocate centroids. Every document is handled
+ * the same way in parallel and sequential runs, so the result only depends on the seed.
+ *
+ * Documents without terms are not assigned (cluster -1).
+ */
+public final class KMeansClustering {
+
+	private static final int ROWS_PER_TASK = 1024;
+
+	private final MappedTfIdfModel model;
+
+	private final int k;
+
+	private final int numTerms;
+
+	private float[] centroids;
+
+	private float[] sums;
+
+	private final int[] assignments;
+
+	private final int[] sizes;
+
+	/** centroid lengths of the update step */
+	private final double[] lengths;
+
+	private final float[] similarities;
+
+	private int iterations;
+
+	private KMeansClustering(final MappedTfIdfModel model, final int k) {
+
+		this.model = model;
+		this.k = k;
+		this.numTerms = model.getNumTerms();
+		this.centroids = new float[numTerms * k];
+		this.sums = new float[numTerms * k];
+		this.assignments = new int[model.getNumRows()];
+		for (int row = 0; row < assignments.length; row++) {
+			if (model.getNorm(row) == 0) {
+				assignments[row] = -1;
+			}
+		}
+		this.sizes = new int[k];
+		this.lengths = new double[k];
+		this.similarities = new float[model.getNumRows()];
+	}
+
+	/**
+	 * Cluster the documents of a model.
+	 *
+	 * @param model
+	 * @param k
+	 *            : number of clusters, at most the number of documents with terms
+	 * @param maxIterations
+	 * @param seed
+	 *            : seed of the k-means++ sampling
+	 * @param parallelism
+	 *            : threads; 1 runs on the calling thread
+	 * @return
+	 */
+	public static KMeansClustering cluster(final MappedTfIdfModel model, final int k, final int maxIterations, final long seed,
+	        final int parallelism) {
+
+		int numDocs = 0;
+		for (int row = 0; row < model.getNumRows(); row++) {
+			if (model.getNorm(row) > 0) {
+				numDocs++;
+			}
+		}
+		final KMeansClustering clustering = new KMeansClustering(model, Math.max(0, Math.min(k, numDocs)));
+		if (clustering.k == 0) {
+			Arrays.fill(clustering.assignments, -1);
+			return clustering;
+		}
+
+		final ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			clustering.seed(new Random(seed), pool);
+			final int[] previous = new int[clustering.assignments.length];
+			for (int iteration = 0; iteration < maxIterations; iteration++) {
+				System.arraycopy(clustering.assignments, 0, previous, 0, previous.length);
+				clustering.assign(pool);
+				clustering.iterations++;
+				// stop after an assignment step, so the similarities and sizes describe the centroids that are kept
+				if (iteration > 0 && Arrays.equals(previous, clustering.assignments) || iteration == maxIterations - 1) {
+					clustering.countSizes();
+					break;
+				}
+				clustering.update();
+			}
+		}
+		finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		return clustering;
+	}
+
+	public int getNumClusters() {
+
+		return k;
+	}
+
+	/**
+	 * @return the number of assignment steps run until no document moved, or the maximum
+	 */
+	public int getIterations() {
+
+		return iterations;
+	}
+
+	/**
+	 * @param row
+	 * @return the cluster of a document, -1 if it has no terms
+	 */
+	public int getAssignment(final int row) {
+
+		return assignments[row];
+	}
+
+	public int getClusterSize(final int cluster) {
+
+		return sizes[cluster];
+	}
+
+	/**
+	 * @param row
+	 * @return cosine similarity of a document to the centroid of its cluster
+	 */
+	public float getSimilarity(final int row) {
+
+		return similarities[row];
+	}
+
+	/**
+	 * Mean cosine similarity of the documents to their centroids: the objective k-means maximizes.
+	 *
+	 * @return
+	 */
+	public double getObjective() {
+
+		double sum = 0;
+		int n = 0;
+		for (int row = 0; row < assignments.length; row++) {
+			if (assignments[row] >= 0) {
+				sum += similarities[row];
+				n++;
+			}
+		}
+		return n > 0 ? sum / n : 0;
+	}
+
+	/**
+	 * The terms with the highest centroid weights of a cluster.
+	 *
+	 * @param cluster
+	 * @param n
+	 * @return
+	 */
+	public List<String> getTopTerms(final int cluster, final int n) {
+
+		// weights are not negative, so their float bits sort like the floats
+		final long[] ranked = new long[numTerms];
+		for (int term = 0; term < numTerms; term++) {
+			ranked[term] = ((long) Float.floatToIntBits(centroids[term * k + cluster]) << 32) | (Integer.MAX_VALUE - term);
+		}
+		Arrays.sort(ranked);
+		final List<String> terms = Lists.newArrayList();
+		for (int i = numTerms - 1; i >= 0 && terms.size() < n && ranked[i] >>> 32 != 0; i--) {
+			terms.add(model.getTerm(Integer.MAX_VALUE - (int) ranked[i]));
+		}
+		return terms;
+	}
+
+	/**
+	 * k-means++ seeding: centroid c becomes the normalized row of the c-th seed.
+	 */
+	private void seed(final Random random, final ForkJoinPool pool) {
+
+		final int numRows = model.getNumRows();
+		final float[] distances = new float[numRows];
+		final boolean[] picked = new boolean[numRows];
+		for (int c = 0; c < k; c++) {
+			int seed = -1;
+			double total = 0;
+			if (c > 0) {
+				for (int row = 0; row < numRows; row++) {
+					total += distances[row];
+				}
+			}
+			if (total > 0) {
+				double target = random.nextDouble() * total;
+				for (int row = 0; row < numRows && seed < 0; row++) {
+					target -= distances[row];
+					if (distances[row] > 0 && target <= 0) {
+						seed = row;
+					}
+				}
+			}
+			if (seed < 0) {
+				// first seed, or all documents coincide with a seed already: a uniformly drawn document not picked yet
+				final int numDocs = countDocs(picked);
+				int target = random.nextInt(numDocs);
+				for (int row = 0; row < numRows && seed < 0; row++) {
+					if (model.getNorm(row) > 0 && !picked[row] && target-- == 0) {
+						seed = row;
+					}
+				}
+			}
+			picked[seed] = true;
+
+			final double norm = model.getNorm(seed);
+			for (int e = model.getRowStart(seed); e < model.getRowEnd(seed); e++) {
+				centroids[model.getColumn(e) * k + c] = (float) (model.getValue(e) / norm);
+			}
+
+			final int chosen = seed;
+			final boolean first = c == 0;
+			run(pool, new Rows() {
+
+				@Override
+				public void compute(final int from, final int to) {
+
+					for (int row = from; row < to; row++) {
+						if (model.getNorm(row) > 0) {
+							final float distance = (float) Math.max(0, 1 - model.cosine(row, chosen));
+							distances[row] = first ? distance : Math.min(distances[row], distance);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private int countDocs(final boolean[] excluded) {
+
+		int numDocs = 0;
+		for (int row = 0; row < model.getNumRows(); row++) {
+			if (model.getNorm(row) > 0 && !excluded[row]) {
+				numDocs++;
+			}
+		}
+		return numDocs;
+	}
+
+	/**
+	 * Assignment step: every document to the centroid with the highest dot product.
+	 */
+	private void assign(final ForkJoinPool pool) {
+
+		run(pool, new Rows() {
+
+			@Override
+			public void compute(final int from, final int to) {
+
+				final float[] scores = new float[k];
+				for (int row = from; row < to; row++) {
+					final double norm = model.getNorm(row);
+					if (norm == 0) {
+						assignments[row] = -1;
+						continue;
+					}
+					Arrays.fill(scores, 0f);
+					for (int e = model.getRowStart(row); e < model.getRowEnd(row); e++) {
+						final float weight = model.getValue(e);
+						final int offset = model.getColumn(e) * k;
+						for (int c = 0; c < k; c++) {
+							scores[c] += weight * centroids[offset + c];
+						}
+					}
+					int best = 0;
+					for (int c = 1; c < k; c++) {
+						if (scores[c] > scores[best]) {
+							best = c;
+						}
+					}
+					assignments[row] = best;
+					similarities[row] = (float) (scores[best] / norm);
+				}
+			}
+		});
+	}
+
+	private void countSizes() {
+
+		Arrays.fill(sizes, 0);
+		for (final int c : assignments) {
+			if (c >= 0) {
+				sizes[c]++;
+			}
+		}
+	}
+
+	/**
+	 * Update step: every centroid becomes the normalized sum of the normalized rows of its documents. A cluster that
+	 * lost all documents keeps its centroid.
+	 */
+	private void update() {
+
+		countSizes();
+		Arrays.fill(sums, 0f);
+		for (int row = 0; row < assignments.length; row++) {
+			final int c = assignments[row];
+			if (c < 0) {
+				continue;
+			}
+			final double norm = model.getNorm(row);
+			for (int e = model.getRowStart(row); e < model.getRowEnd(row); e++) {
+				sums[model.getColumn(e) * k + c] += (float) (model.getValue(e) / norm);
+			}
+		}
+
+		Arrays.fill(lengths, 0);
+		for (int offset = 0; offset < sums.length; offset += k) {
+			for (int c = 0; c < k; c++) {
+				lengths[c] += (double) sums[offset + c] * sums[offset + c];
+			}
+		}
+		for (int c = 0; c < k; c++) {
+			lengths[c] = lengths[c] > 0 ? 1 / Math.sqrt(lengths[c]) : 0;
+		}
+		for (int offset = 0; offset < sums.length; offset += k) {
+			for (int c = 0; c < k; c++) {
+				sums[offset + c] = sizes[c] > 0 ? (float) (sums[offset + c] * lengths[c]) : centroids[offset + c];
+			}
+		}
+
+		final float[] swap = centroids;
+		centroids = sums;
+		sums = swap;
+	}
+
+	/**
+	 * A range of rows to process.
+	 *
+	 */
+	private interface Rows {
+
+		void compute(int from, int to);
+	}
+
+	private void run(final ForkJoinPool pool, final Rows rows) {
+
+		if (pool == null) {
+			rows.compute(0, model.getNumRows());
+		} else {
+			pool.invoke(new RowTask(rows, 0, model.getNumRows()));
+		}
+	}
+
+	/**
+	 * Processes the rows from (inclusive) until to (exclusive), splitting down to
+	 * {@link KMeansClustering#ROWS_PER_TASK} rows.
+	 *
+	 */
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Rows rows;
+
+		private final int from;
+
+		private final int to;
+
+		RowTask(final Rows rows, final int from, final int to) {
+
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > ROWS_PER_TASK) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new RowTask(rows, from, mid), new RowTask(rows, mid, to));
+				return;
+			}
+			rows.compute(from, to);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Read-only {@link TfIdfModel} mapped from a file with {@link FileChannel#map}: the vocabulary, document frequencies,
+ * idf table, CSR rows of tf-idf weights and row norms stay off-heap in the page cache, so opening a model costs a few
+ * system calls however large it is, and all jobs reading the same file share one copy.
+ *
+ * File layout (big-endian): magic, format, index version, numRows, numTerms, numEntries, then the sections norms
+ * (double[numRows]), rowPtr (int[numRows + 1]), columns (int[numEntries]), values (float[numEntries]), docFreqs
+ * (int[numTerms]), idfs (float[numTerms]), termOffsets (int[numTerms + 1]) and the UTF-8 term bytes in dictionary
+ * order. The index version is that of the reader the model was built from, so a stale file is detected and rebuilt.
+ *
+ * The mapping is released when the model is garbage collected; Java offers no way to unmap it earlier.
+ */
+public final class MappedTfIdfModel {
+
+	private static final int MAGIC = 0x54464944;
+
+	/** bump when the layout changes; files of other formats are rebuilt */
+	private static final int FORMAT = 1;
+
+	private static final int HEADER_LENGTH = 32;
+
+	private final long indexVersion;
+
+	private final DoubleBuffer norms;
+
+	private final IntBuffer rowPtr;
+
+	private final IntBuffer columns;
+
+	private final FloatBuffer values;
+
+	private final IntBuffer docFreqs;
+
+	private final FloatBuffer idfs;
+
+	private final IntBuffer termOffsets;
+
+	private final ByteBuffer termBytes;
+
+	private MappedTfIdfModel(final ByteBuffer buffer) throws IOException {
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+			throw new IOException("Not a TF-IDF model file of format " + FORMAT);
+		}
+		indexVersion = buffer.getLong(8);
+		final int numRows = buffer.getInt(16);
+		final int numTerms = buffer.getInt(20);
+		final int numEntries = buffer.getInt(24);
+
+		int offset = HEADER_LENGTH;
+		norms = section(buffer, offset, 8 * numRows).asDoubleBuffer();
+		offset += 8 * numRows;
+		rowPtr = section(buffer, offset, 4 * (numRows + 1)).asIntBuffer();
+		offset += 4 * (numRows + 1);
+		columns = section(buffer, offset, 4 * numEntries).asIntBuffer();
+		offset += 4 * numEntries;
+		values = section(buffer, offset, 4 * numEntries).asFloatBuffer();
+		offset += 4 * numEntries;
+		docFreqs = section(buffer, offset, 4 * numTerms).asIntBuffer();
+		offset += 4 * numTerms;
+		idfs = section(buffer, offset, 4 * numTerms).asFloatBuffer();
+		offset += 4 * numTerms;
+		termOffsets = section(buffer, offset, 4 * (numTerms + 1)).asIntBuffer();
+		offset += 4 * (numTerms + 1);
+		termBytes = section(buffer, offset, buffer.capacity() - offset);
+	}
+
+	private static ByteBuffer section(final ByteBuffer buffer, final int offset, final int length) throws IOException {
+
+		if (offset + length > buffer.capacity()) {
+			throw new IOException("Truncated TF-IDF model file");
+		}
+		final ByteBuffer section = ((ByteBuffer) buffer.duplicate().position(offset)).slice();
+		section.limit(length);
+		return section;
+	}
+
+	/**
+	 * Write a model to a file, atomically replacing an existing one so readers never see a partial file.
+	 *
+	 * @param model
+	 * @param indexVersion
+	 *            : version of the index reader the model was built from
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(final TfIdfModel model, final long indexVersion, final File file) throws IOException {
+
+		final DocTermMatrix weights = model.getWeights();
+		final int numRows = weights.getNumRows();
+		final int numTerms = model.getNumTerms();
+		final int numEntries = weights.getSize();
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(indexVersion);
+			out.writeInt(numRows);
+			out.writeInt(numTerms);
+			out.writeInt(numEntries);
+			// padding to an 8-byte boundary
+			out.writeInt(0);
+			for (int row = 0; row < numRows; row++) {
+				out.writeDouble(weights.getNorm(row));
+			}
+			for (int row = 0; row < numRows; row++) {
+				out.writeInt(weights.getRowStart(row));
+			}
+			out.writeInt(numEntries);
+			for (int k = 0; k < numEntries; k++) {
+				out.writeInt(weights.getColumn(k));
+			}
+			for (int k = 0; k < numEntries; k++) {
+				out.writeFloat(weights.getValue(k));
+			}
+			for (int id = 0; id < numTerms; id++) {
+				out.writeInt(model.getDocFreq(id));
+			}
+			for (int id = 0; id < numTerms; id++) {
+				out.writeFloat(model.getIdf(id));
+			}
+			final byte[][] terms = new byte[numTerms][];
+			int termOffset = 0;
+			for (int id = 0; id < numTerms; id++) {
+				terms[id] = model.getTerm(id).getBytes(Charsets.UTF_8);
+				out.writeInt(termOffset);
+				termOffset += terms[id].length;
+			}
+			out.writeInt(termOffset);
+			for (final byte[] term : terms) {
+				out.write(term);
+			}
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Map a model file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 *             if the file is not a model file of the current format
+	 */
+	public static MappedTfIdfModel open(final File file) throws IOException {
+
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("TF-IDF model file too large to map: " + file);
+			}
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new MappedTfIdfModel(buffer);
+		}
+		finally {
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	/**
+	 * Index version a model file was built from, without mapping it.
+	 *
+	 * @param file
+	 * @return -1 if the file does not exist or has another format
+	 * @throws IOException
+	 */
+	public static long readIndexVersion(final File file) throws IOException {
+
+		if (!file.exists() || file.length() < HEADER_LENGTH) {
+			return -1;
+		}
+		final DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC && in.readInt() == FORMAT ? in.readLong() : -1;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public long getIndexVersion() {
+
+		return indexVersion;
+	}
+
+	public int getNumRows() {
+
+		return norms.limit();
+	}
+
+	public int getNumTerms() {
+
+		return docFreqs.limit();
+	}
+
+	/**
+	 * @return the number of non-zero weights
+	 */
+	public int getSize() {
+
+		return columns.limit();
+	}
+
+	public String getTerm(final int id) {
+
+		final int start = termOffsets.get(id);
+		final byte[] bytes = new byte[termOffsets.get(id + 1) - start];
+		((ByteBuffer) termBytes.duplicate().position(start)).get(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	/**
+	 * Binary search of the vocabulary, which is in the unsigned byte order of the term dictionary.
+	 *
+	 * @param term
+	 * @return the term id, -1 if the term is not in the model
+	 */
+	public int getTermId(final String term) {
+
+		final BytesRef target = new BytesRef(term);
+		int low = 0;
+		int high = getNumTerms() - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int c = compareTerm(mid, target);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compareTerm(final int id, final BytesRef target) {
+
+		final int start = termOffsets.get(id);
+		final int length = termOffsets.get(id + 1) - start;
+		final int n = Math.min(length, target.length);
+		for (int i = 0; i < n; i++) {
+			final int c = (termBytes.get(start + i) & 0xFF) - (target.bytes[target.offset + i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - target.length;
+	}
+
+	public int getDocFreq(final int id) {
+
+		return docFreqs.get(id);
+	}
+
+	public float getIdf(final int id) {
+
+		return idfs.get(id);
+	}
+
+	public int getRowStart(final int row) {
+
+		return rowPtr.get(row);
+	}
+
+	public int getRowEnd(final int row) {
+
+		return rowPtr.get(row + 1);
+	}
+
+	public int getColumn(final int entry) {
+
+		return columns.get(entry);
+	}
+
+	public float getValue(final int entry) {
+
+		return values.get(entry);
+	}
+
+	public double getNorm(final int row) {
+
+		return norms.get(row);
+	}
+
+	/**
+	 * Dot product of two rows, by merging their sorted column ids.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double dot(final int row1, final int row2) {
+
+		int k1 = rowPtr.get(row1);
+		int k2 = rowPtr.get(row2);
+		final int end1 = rowPtr.get(row1 + 1);
+		final int end2 = rowPtr.get(row2 + 1);
+		double sum = 0;
+		while (k1 < end1 && k2 < end2) {
+			final int c1 = columns.get(k1);
+			final int c2 = columns.get(k2);
+			if (c1 == c2) {
+				sum += (double) values.get(k1++) * values.get(k2++);
+			} else if (c1 < c2) {
+				k1++;
+			} else {
+				k2++;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Cosine similarity of two rows. NaN if one of them is empty.
+	 *
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	public double cosine(final int row1, final int row2) {
+
+		return dot(row1, row2) / (norms.get(row1) * norms.get(row2));
+	}
+}
@@ -0,0 +1,165 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * MinHash signatures of the token set of a text. The share of equal positions in the signatures of two texts estimates
+ * the Jaccard similarity of their token sets. Tokens are produced by the same analyzer as the index, so "Re: Report
+ * error" and "report errors" differ only in the tokens the analyzer keeps apart.
+ *
+ * Signatures are computed during indexing for columns with the "minhash" schema flag (see {@link IndexSchema}) and
+ * stored as binary doc values in {@link #getField(String)}. The hash functions are seeded with a constant, so
+ * signatures stay comparable across runs.
+ */
+public class MinHash {
+
+	/** hash functions per signature */
+	public static final int NUM_HASHES = 128;
+
+	private static final String FIELD_PREFIX = "_minhash_";
+
+	private static final HashFunction TOKEN_HASH = Hashing.murmur3_128();
+
+	private static final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
+
+	/** h_i(x) = high 32 bits of (a_i * x + b_i), a_i odd: a cheap universal family over 64-bit token hashes */
+	private static final long[] A = new long[NUM_HASHES];
+
+	private static final long[] B = new long[NUM_HASHES];
+
+	static {
+		final Random random = new Random(0x5eed);
+		for (int i = 0; i < NUM_HASHES; i++) {
+			A[i] = random.nextLong() | 1L;
+			B[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * Doc-values field holding the signatures of a column.
+	 *
+	 * @param column
+	 * @return
+	 */
+	public static String getField(final String column) {
+
+		return FIELD_PREFIX + column;
+	}
+
+	/**
+	 * Signature of the analyzed tokens of a text.
+	 *
+	 * @param text
+	 * @return null if the text has no tokens
+	 */
+	public static int[] signature(final String text) {
+
+		final Set<String> tokens = Sets.newHashSet();
+		try {
+			final TokenStream stream = analyzer.tokenStream(null, new StringReader(text));
+			final CharTermAttribute cta = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				tokens.add(cta.toString());
+			}
+			stream.end();
+			stream.close();
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return signature(tokens);
+	}
+
+	/**
+	 * Signature of a token set.
+	 *
+	 * @param tokens
+	 * @return null if the set is empty
+	 */
+	public static int[] signature(final Set<String> tokens) {
+
+		if (tokens.isEmpty()) {
+			return null;
+		}
+
+		final int[] signature = new int[NUM_HASHES];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for (final String token : tokens) {
+			final long x = TOKEN_HASH.hashString(token, Charsets.UTF_8).asLong();
+			for (int i = 0; i < NUM_HASHES; i++) {
+				final int h = (int) ((A[i] * x + B[i]) >>> 32);
+				if (h < signature[i]) {
+					signature[i] = h;
+				}
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Estimated Jaccard similarity: the share of equal signature positions.
+	 *
+	 * @param signature1
+	 * @param signature2
+	 * @return
+	 */
+	public static double similarity(final int[] signature1, final int[] signature2) {
+
+		int equal = 0;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			if (signature1[i] == signature2[i]) {
+				equal++;
+			}
+		}
+		return (double) equal / NUM_HASHES;
+	}
+
+	static BytesRef toBytes(final int[] signature) {
+
+		final byte[] bytes = new byte[NUM_HASHES * 4];
+		for (int i = 0; i < NUM_HASHES; i++) {
+			bytes[4 * i] = (byte) (signature[i] >>> 24);
+			bytes[4 * i + 1] = (byte) (signature[i] >>> 16);
+			bytes[4 * i + 2] = (byte) (signature[i] >>> 8);
+			bytes[4 * i + 3] = (byte) signature[i];
+		}
+		return new BytesRef(bytes);
+	}
+
+	/**
+	 * @param bytes
+	 * @param signature
+	 *            : filled with the decoded signature
+	 * @return false if the bytes do not hold a signature (document without one)
+	 */
+	static boolean fromBytes(final BytesRef bytes, final int[] signature) {
+
+		if (bytes.length != NUM_HASHES * 4) {
+			return false;
+		}
+		for (int i = 0; i < NUM_HASHES; i++) {
+			final int p = bytes.offset + 4 * i;
+			signature[i] = (bytes.bytes[p] & 0xFF) << 24 | (bytes.bytes[p + 1] & 0xFF) << 16 | (bytes.bytes[p + 2] & 0xFF) << 8
+			               | (bytes.bytes[p + 3] & 0xFF);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,232 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Banded locality-sensitive hashing over the {@link MinHash} signatures stored in the index. A signature is cut into
+ * bands of rows; two documents become candidates if all rows of at least one band are equal. With b bands of r rows,
+ * a pair of Jaccard similarity s is found with probability 1 - (1 - s^r)^b, a steep S-curve around (1/b)^(1/r). Building
+ * the buckets is linear in the number of documents, and so is grouping them: only documents sharing a bucket are ever
+ * compared, each once per bucket.
+ */
+public class MinHashLSH {
+
+	private final int bands;
+
+	private final int rows;
+
+	private final int maxDoc;
+
+	/** band key -> doc ids */
+	private final Map<Long, List<Integer>> buckets = Maps.newHashMap();
+
+	/** signatures by doc id, null if a document has none */
+	private final int[][] signatures;
+
+	/**
+	 * Load the signatures of a column and hash them into buckets.
+	 *
+	 * @param reader
+	 * @param column
+	 *            : a column with the "minhash" schema flag
+	 * @param bands
+	 * @param rows
+	 *            : bands * rows must not exceed {@link MinHash#NUM_HASHES}
+	 * @throws IOException
+	 */
+	public MinHashLSH(final IndexReader reader, final String column, final int bands, final int rows) throws IOException {
+
+		if (bands < 1 || rows < 1 || bands * rows > MinHash.NUM_HASHES) {
+			throw new IllegalArgumentException("bands * rows must be between 1 and " + MinHash.NUM_HASHES + ": " + bands + " * " + rows);
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.maxDoc = reader.maxDoc();
+		this.signatures = new int[maxDoc][];
+
+		final BinaryDocValues values = MultiDocValues.getBinaryValues(reader, MinHash.getField(column));
+		if (values == null) {
+			System.out.println(">>>No MinHash signatures for " + column + ", add the minhash flag to its schema and re-index");
+			return;
+		}
+
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		final BytesRef bytes = new BytesRef();
+		for (int doc = 0; doc < maxDoc; doc++) {
+			if (liveDocs != null && !liveDocs.get(doc)) {
+				continue;
+			}
+			values.get(doc, bytes);
+			final int[] signature = new int[MinHash.NUM_HASHES];
+			if (MinHash.fromBytes(bytes, signature)) {
+				signatures[doc] = signature;
+				for (int band = 0; band < bands; band++) {
+					final Long key = bandKey(signature, band);
+					List<Integer> bucket = buckets.get(key);
+					if (bucket == null) {
+						bucket = Lists.newArrayListWithCapacity(1);
+						buckets.put(key, bucket);
+					}
+					bucket.add(doc);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups of likely duplicates: documents are linked if they share a bucket and their estimated Jaccard similarity
+	 * is at least minSimilarity, and a group is a connected set of links. Within a bucket every document is only
+	 * compared with the first document of the group the bucket's first document is in, not with every other member:
+	 * short or identical titles fill large buckets, which would otherwise take quadratic time. Documents that are not
+	 * linked to that group can still be linked through their other bands.
+	 * Groups are sorted by their first document; singletons are left out.
+	 *
+	 * @param minSimilarity
+	 * @return
+	 */
+	public List<List<Integer>> getCandidateGroups(final double minSimilarity) {
+
+		// union-find over doc ids
+		final int[] parents = new int[maxDoc];
+		for (int doc = 0; doc < maxDoc; doc++) {
+			parents[doc] = doc;
+		}
+		for (final List<Integer> bucket : buckets.values()) {
+			for (int i = 1; i < bucket.size(); i++) {
+				final int doc = bucket.get(i);
+				final int root1 = find(parents, doc);
+				final int root2 = find(parents, bucket.get(0));
+				if (root1 != root2 && MinHash.similarity(signatures[doc], signatures[root2]) >= minSimilarity) {
+					// keep the smallest doc id as root so groups come out in order
+					parents[Math.max(root1, root2)] = Math.min(root1, root2);
+				}
+			}
+		}
+
+		final Map<Integer, List<Integer>> groups = Maps.newLinkedHashMap();
+		for (int doc = 0; doc < maxDoc; doc++) {
+			if (signatures[doc] == null) {
+				continue;
+			}
+			final int root = find(parents, doc);
+			List<Integer> group = groups.get(root);
+			if (group == null) {
+				group = Lists.newArrayList();
+				groups.put(root, group);
+			}
+			group.add(doc);
+		}
+
+		final List<List<Integer>> candidates = Lists.newArrayList();
+		for (final List<Integer> group : groups.values()) {
+			if (group.size() > 1) {
+				candidates.add(group);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Documents sharing a bucket with the given text, most similar first.
+	 *
+	 * @param text
+	 * @param minSimilarity
+	 *            : minimum estimated Jaccard similarity
+	 * @return doc ids
+	 */
+	public List<Integer> query(final String text, final double minSimilarity) {
+
+		final int[] signature = MinHash.signature(text);
+		if (signature == null) {
+			return Lists.newArrayList();
+		}
+
+		final Set<Integer> candidates = Sets.newHashSet();
+		for (int band = 0; band < bands; band++) {
+			final List<Integer> bucket = buckets.get(bandKey(signature, band));
+			if (bucket != null) {
+				candidates.addAll(bucket);
+			}
+		}
+
+		final Map<Integer, Double> similarities = Maps.newHashMap();
+		for (final Integer doc : candidates) {
+			final double similarity = MinHash.similarity(signature, signatures[doc]);
+			if (similarity >= minSimilarity) {
+				similarities.put(doc, similarity);
+			}
+		}
+
+		final List<Integer> results = Lists.newArrayList(similarities.keySet());
+		Collections.sort(results, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer doc1, final Integer doc2) {
+
+				final int c = Double.compare(similarities.get(doc2), similarities.get(doc1));
+				return c != 0 ? c : doc1.compareTo(doc2);
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * Estimated Jaccard similarity of a document to a text, NaN if either has no signature.
+	 *
+	 * @param doc
+	 * @param text
+	 * @return
+	 */
+	public double getSimilarity(final int doc, final String text) {
+
+		final int[] signature = MinHash.signature(text);
+		return signature != null && signatures[doc] != null ? MinHash.similarity(signatures[doc], signature) : Double.NaN;
+	}
+
+	/**
+	 * Estimated Jaccard similarity of two documents, NaN if either has no signature.
+	 *
+	 * @param doc1
+	 * @param doc2
+	 * @return
+	 */
+	public double getSimilarity(final int doc1, final int doc2) {
+
+		return signatures[doc1] != null && signatures[doc2] != null ? MinHash.similarity(signatures[doc1], signatures[doc2]) : Double.NaN;
+	}
+
+	private long bandKey(final int[] signature, final int band) {
+
+		long h = band * 0x9E3779B97F4A7C15L;
+		for (int i = band * rows; i < (band + 1) * rows; i++) {
+			h = (h ^ (signature[i] & 0xFFFFFFFFL)) * 0x100000001B3L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	private static int find(final int[] parents, int doc) {
+
+		while (parents[doc] != doc) {
+			parents[doc] = parents[parents[doc]];
+			doc = parents[doc];
+		}
+		return doc;
+	}
+}
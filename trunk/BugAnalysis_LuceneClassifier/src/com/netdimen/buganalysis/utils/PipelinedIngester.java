@@ -0,0 +1,147 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.lucene.index.IndexWriter;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Multi-threaded variant of {@link IndexIngester}. The reader thread only copies rows into a bounded queue; a pool of
+ * worker threads builds the documents and adds them to the (thread-safe) IndexWriter, so that analysis runs on all
+ * cores. The bounded queue keeps memory flat when the reader is faster than the workers. Everything is committed once
+ * when the ingester is closed. Documents are numbered in the order the workers add them, not in the order of the rows.
+ */
+class PipelinedIngester extends IndexIngester {
+
+	private static final Object[] POISON = new Object[0];
+
+	private final BlockingQueue<Object[]> queue;
+
+	private final Thread[] workers;
+
+	/** first exception of any worker, e.g. an IllegalArgumentException from the writer for an immense term */
+	private volatile Throwable failure = null;
+
+	PipelinedIngester(final IndexWriter writer, final boolean incremental, final int threads, final int queueSize) throws IOException {
+
+		super(writer, incremental);
+		this.queue = new ArrayBlockingQueue<Object[]>(queueSize);
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					work();
+				}
+			}, "ingest-worker-" + i);
+			// a worker that is never stopped must not keep the JVM alive
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queue one row, blocking while the queue is full. The values are copied, so the caller may reuse its list.
+	 * 
+	 */
+	@Override
+	void add(final List<String> fields, final List<String> values) throws IOException {
+
+		checkFailure();
+		try {
+			queue.put(new Object[] { fields, Lists.newArrayList(values) });
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing row", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work() {
+
+		try {
+			while (true) {
+				final Object[] row = queue.take();
+				if (row == POISON) {
+					break;
+				}
+				if (failure != null) {
+					continue; // keep draining so the reader never blocks; it fails on its next add()
+				}
+				try {
+					super.add((List<String>) row[0], (List<String>) row[1]);
+				}
+				catch (Throwable e) {
+					failure = e;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+
+		final Throwable failure = this.failure;
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure != null) {
+			throw new IOException("Ingest worker failed", failure);
+		}
+	}
+
+	private void stopWorkers() throws IOException {
+
+		try {
+			for (int i = 0; i < workers.length; i++) {
+				queue.put(POISON);
+			}
+			for (final Thread worker : workers) {
+				worker.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for ingest workers", e);
+		}
+	}
+
+	/**
+	 * Wait for the workers to drain the queue, then delete stale documents and commit once. If a worker failed nothing
+	 * is committed.
+	 * 
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			stopWorkers();
+			checkFailure();
+		}
+		catch (IOException e) {
+			super.abort();
+			throw e;
+		}
+		super.close();
+	}
+
+	@Override
+	void abort() throws IOException {
+
+		try {
+			stopWorkers();
+		}
+		finally {
+			super.abort();
+		}
+	}
+}
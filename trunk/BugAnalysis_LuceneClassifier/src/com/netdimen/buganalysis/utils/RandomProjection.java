@@ -0,0 +1,116 @@
+package com.netdimen.buganalysis.utils;
+
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Sparse random projection of TF-IDF rows into dense vectors of a few hundred dimensions (sparse Johnson-Lindenstrauss
+ * transform, Kane and Nelson). Every term is mapped to {@link #NONZEROS} distinct dimensions with random signs; a
+ * document vector is the weighted sum of the vectors of its terms. Dot products, and so cosine similarities, are
+ * preserved in expectation with an error that shrinks with 1 / sqrt(dimensions), while projecting a document costs
+ * only NONZEROS additions per term.
+ *
+ * The dimensions and signs of a term are derived from a hash of its text, not from its position in a vocabulary, so
+ * vectors of different index generations, and of texts that were never indexed, stay comparable.
+ */
+public final class RandomProjection {
+
+	/** non-zero entries per term */
+	private static final int NONZEROS = 8;
+
+	private static final HashFunction TERM_HASH = Hashing.murmur3_128(0x5eed);
+
+	private final int dimensions;
+
+	/**
+	 * @param dimensions
+	 *            : at least {@link #NONZEROS}, typically 128 to 256
+	 */
+	public RandomProjection(final int dimensions) {
+
+		if (dimensions < NONZEROS) {
+			throw new IllegalArgumentException("At least " + NONZEROS + " dimensions are needed: " + dimensions);
+		}
+		this.dimensions = dimensions;
+	}
+
+	public int getDimensions() {
+
+		return dimensions;
+	}
+
+	/**
+	 * Project all rows of a model. Rows are L2-normalized, so the dot product of two rows is their cosine similarity;
+	 * empty rows stay 0.
+	 *
+	 * @param model
+	 * @return
+	 */
+	public DenseVectors project(final MappedTfIdfModel model) {
+
+		// the components of every term once: dimension << 1 | sign bit
+		final int[] components = new int[model.getNumTerms() * NONZEROS];
+		for (int id = 0; id < model.getNumTerms(); id++) {
+			components(model.getTerm(id), components, id * NONZEROS);
+		}
+
+		final int numRows = model.getNumRows();
+		final float[] values = new float[numRows * dimensions];
+		for (int row = 0; row < numRows; row++) {
+			final int offset = row * dimensions;
+			for (int k = model.getRowStart(row); k < model.getRowEnd(row); k++) {
+				add(components, model.getColumn(k) * NONZEROS, model.getValue(k), values, offset);
+			}
+			DenseVectors.normalize(values, offset, dimensions);
+		}
+		return new DenseVectors(dimensions, values);
+	}
+
+	/**
+	 * Project one weighted term list, e.g. a document that is not part of a model yet.
+	 *
+	 * @param terms
+	 * @param weights
+	 * @return an L2-normalized vector, 0 if there are no terms
+	 */
+	public float[] project(final String[] terms, final float[] weights) {
+
+		final int[] components = new int[NONZEROS];
+		final float[] vector = new float[dimensions];
+		for (int i = 0; i < terms.length; i++) {
+			components(terms[i], components, 0);
+			add(components, 0, weights[i], vector, 0);
+		}
+		DenseVectors.normalize(vector, 0, dimensions);
+		return vector;
+	}
+
+	private void components(final String term, final int[] components, final int offset) {
+
+		final Random random = new Random(TERM_HASH.hashString(term, Charsets.UTF_8).asLong());
+		for (int n = 0; n < NONZEROS; n++) {
+			int dimension;
+			boolean duplicate;
+			do {
+				dimension = random.nextInt(dimensions);
+				duplicate = false;
+				for (int m = 0; m < n; m++) {
+					duplicate |= components[offset + m] >>> 1 == dimension;
+				}
+			}
+			while (duplicate);
+			components[offset + n] = dimension << 1 | (random.nextBoolean() ? 1 : 0);
+		}
+	}
+
+	private static void add(final int[] components, final int from, final float weight, final float[] vector, final int offset) {
+
+		for (int n = from; n < from + NONZEROS; n++) {
+			final int component = components[n];
+			vector[offset + (component >>> 1)] += (component & 1) == 0 ? weight : -weight;
+		}
+	}
+}
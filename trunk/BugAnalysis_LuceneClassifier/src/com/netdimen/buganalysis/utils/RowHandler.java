@@ -0,0 +1,36 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Callback for streaming readers that push spreadsheet/CSV rows one at a time instead of loading the whole file.
+ * 
+ */
+public interface RowHandler {
+
+	/**
+	 * Called before the first row of a sheet (or file).
+	 * 
+	 * @param sheetName
+	 * @throws IOException
+	 */
+	void startSheet(String sheetName) throws IOException;
+
+	/**
+	 * Called once per non-empty row. Values keep their column positions (missing cells are ""). The list is reused by
+	 * the reader, so copy it if it has to outlive the call.
+	 * 
+	 * @param rowIndex
+	 * @param values
+	 * @throws IOException
+	 */
+	void handleRow(int rowIndex, List<String> values) throws IOException;
+
+	/**
+	 * Called after the last row of a sheet (or file).
+	 * 
+	 * @throws IOException
+	 */
+	void endSheet() throws IOException;
+}
@@ -1,33 +1,27 @@
 package com.netdimen.buganalysis.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.commons.collections4.comparators.ReverseComparator;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.TermVector;
 import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
@@ -47,8 +41,6 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
@@ -63,13 +55,50 @@ import com.netdimen.buganalysis.config.Config;
  */
 public class SearchEngineUtils {
 
+	/** Column that identifies a bug report across exports */
+	public static final String ID_FIELD = "Ticket Id";
+
+	/** Untokenized document key used for update/delete-by-term */
+	public static final String KEY_FIELD = "_key";
+
+	/** Untokenized key + content hash, used to detect unchanged rows */
+	public static final String REVISION_FIELD = "_rev";
+
+	/**
+	 * Index bug file, incrementally if "bug.analysis.index.incremental" is set in config.properties.
+	 * 
+	 * @param srcFile
+	 */
 	public static void indexFile(final String srcFile) {
 
-		// 1. Delete previous indexing results
+		final boolean incremental = Boolean.parseBoolean(Config.getInstance().getProperty("bug.analysis.index.incremental"));
+		indexFile(srcFile, incremental);
+	}
+
+	/**
+	 * Index bug file. A full run re-ingests every row into a new index generation which replaces the live index only
+	 * once it is complete (see {@link IndexManager#publish(File)}); readers never see a half-built index. An incremental
+	 * run keeps the index and only re-analyzes rows whose "Ticket Id" is new or whose content changed; tickets no longer
+	 * in the file are only deleted if "bug.analysis.index.delete.missing" is true, i.e. the file is a full export.
+	 * Either way nothing is done if the index was already built from the same, unchanged file (see
+	 * {@link IndexFingerprint}), unless "bug.analysis.index.skip.unchanged" is false. The vector indexes are brought up
+	 * to date with the index in both cases (see {@link SimilarityUtils#updateVectorIndexes()}).
+	 * 
+	 * @param srcFile
+	 * @param incremental
+	 */
+	public static void indexFile(final String srcFile, final boolean incremental) {
+
+		// 0. Skip if the index already reflects this file
+		Map<String, String> fingerprint = null;
 		try {
-			final File tmp = new File(Config.directoryPath);
-			if (tmp.exists()) {
-				FileUtils.deleteDirectory(tmp);
+			final boolean skipUnchanged = !"false".equals(Config.getInstance().getProperty("bug.analysis.index.skip.unchanged"));
+			final Map<String, String> indexed = skipUnchanged ? IndexFingerprint.current() : Maps.<String, String> newHashMap();
+			fingerprint = IndexFingerprint.compute(srcFile, indexed);
+			if (skipUnchanged && IndexFingerprint.matches(indexed, fingerprint)) {
+				System.out.println(">>>Index is up to date with " + srcFile + ", skip indexing");
+				SimilarityUtils.updateVectorIndexes();
+				return;
 			}
 		}
 		catch (IOException e) {
@@ -77,12 +106,43 @@ public class SearchEngineUtils {
 			e.printStackTrace();
 		}
 
+		// 1. A full run builds a new generation next to the live index, an incremental run updates the live index
+		final File target;
+		try {
+			target = incremental ? IndexManager.getIndexDirectory() : IndexManager.newGeneration();
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return;
+		}
+
 		// 2. index files
+		boolean indexed = false;
 		if (srcFile.contains("xls")) {
-			SearchEngineUtils.indexExcelFile(srcFile);
+			indexed = SearchEngineUtils.indexExcelFile(srcFile, target, incremental, fingerprint);
 		} else if (srcFile.contains("csv")) {
-			SearchEngineUtils.indexCSVFile(srcFile);
+			indexed = SearchEngineUtils.indexCSVFile(srcFile, target, incremental, fingerprint);
+		}
+
+		// 3. Switch readers over, or leave the live index untouched if the new generation is incomplete
+		if (!incremental) {
+			if (indexed) {
+				try {
+					IndexManager.publish(target);
+				}
+				catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			} else {
+				IndexManager.discard(target);
+			}
 		}
+		IndexManager.refresh();
+
+		// 4. Queries only search vector indexes, so build them before the first one
+		SimilarityUtils.updateVectorIndexes();
 	}
 
 	/**
@@ -95,8 +155,10 @@ public class SearchEngineUtils {
 
 		final List<String> termList = Lists.newArrayList();
 		final Map<String, Integer> termFreqMap = Maps.newHashMap();
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 
 			final Fields fields = MultiFields.getFields(reader);
 			final Terms terms = fields.terms(indexField);
@@ -110,7 +172,6 @@ public class SearchEngineUtils {
 				termList.add(termText);
 			}
 
-			reader.close();
 			// sort the term map by frequency descending
 			Collections.sort(termList, new ReverseComparator<String>(new ValueComparator<String, Integer>(termFreqMap)));
 		}
@@ -118,9 +179,38 @@ public class SearchEngineUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return new TermFrequencyObject(termList, termFreqMap);
 	}
 
+	/**
+	 * Get the K terms with the highest document frequency, sorted like {@link #getAllTermsAndSort(String)}. The term
+	 * dictionary is streamed through a bounded heap instead of being copied and sorted, so this is cheap even for a
+	 * large vocabulary.
+	 * 
+	 * @param indexField
+	 * @param k
+	 * @return
+	 */
+	public static TermFrequencyObject getTopTermsAndSort(final String indexField, final int k) {
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			return TopTermsCollector.collect(MultiFields.getTerms(searcher.getIndexReader(), indexField), k);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return new TermFrequencyObject(Lists.<String> newArrayList(), Maps.<String, Integer> newHashMap());
+	}
+
 	public static TermFrequencyObject getTermsAndSort(final String indexField, final Collection<String> includedList) {
 
 		final TermFrequencyObject obj = getAllTermsAndSort(indexField);
@@ -138,7 +228,7 @@ public class SearchEngineUtils {
 	public static ArrayList<String> getTopTerms(final float topTermCutoff, final String field, final int TopN) {
 
 		final ArrayList<String> topTerms = Lists.newArrayList();
-		final TermFrequencyObject obj = SearchEngineUtils.getAllTermsAndSort(field);
+		final TermFrequencyObject obj = SearchEngineUtils.getTopTermsAndSort(field, TopN);
 		final Map<String, Integer> termFreqMap = obj.getTermFreqMap();
 		final List<String> termList = obj.getTermList();
 
@@ -192,28 +282,16 @@ public class SearchEngineUtils {
 	public static BooleanQuery computeTopTermQuery(final float topTermCutoff, final String field) {
 
 		BooleanQuery query = null;
+		IndexSearcher searcher = null;
 
 		try {
-			final Map<String, Integer> termFreqMap = Maps.newHashMap();
-			final List<String> termList = Lists.newArrayList();
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-
-			final Fields fields = MultiFields.getFields(reader);
-			final Terms terms = fields.terms(field);
-
-			final TermsEnum termEnum = terms.iterator(null);
-			BytesRef bytesRef;
-			while ((bytesRef = termEnum.next()) != null) {
-				final String termText = bytesRef.utf8ToString();
-				final int frequency = termEnum.docFreq();
-				termFreqMap.put(termText, frequency);
-				termList.add(termText);
-			}
-
-			reader.close();
-			// sort the term map by frequency descending
-			Collections.sort(termList, new ReverseComparator<String>(new ValueComparator<String, Integer>(termFreqMap)));
+			// a query cannot hold more clauses than this anyway
+			final TermFrequencyObject obj = TopTermsCollector.collect(MultiFields.getTerms(reader, field), BooleanQuery.getMaxClauseCount());
+			final Map<String, Integer> termFreqMap = obj.getTermFreqMap();
+			final List<String> termList = obj.getTermList();
 
 			// retrieve the top terms based on topTermCutof
 			final List<String> topTerms = Lists.newArrayList();
@@ -256,18 +334,22 @@ public class SearchEngineUtils {
 		catch (ParseException e) {
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return query;
 	}
 
 	public static String[] searchIndex(final Query query, final int TopN) {
 
 		final SortedMap<Integer, String> ID_TextMap = new TreeMap<Integer, String>();
+		IndexSearcher searcher = null;
 		try {
-			final IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath))));
+			searcher = IndexManager.acquire();
 
 			final Query q = new QueryParser(Version.LUCENE_46, "Summary", new StandardAnalyzer(Version.LUCENE_46)).parse(query.toString());
 			System.out.println(q.toString());
-			final TopDocs hits = SearchEngineUtils.search(q, TopN);
+			final TopDocs hits = searcher.search(q, TopN);
 			for (final ScoreDoc scoreDoc : hits.scoreDocs) {
 				final int docID = scoreDoc.doc;
 				final Document doc = searcher.doc(docID);
@@ -285,6 +367,9 @@ public class SearchEngineUtils {
 		catch (ParseException e) {
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 		return ID_TextMap.values().toArray(new String[0]);
 	}
 
@@ -298,16 +383,19 @@ public class SearchEngineUtils {
 
 		try {
 			final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
-			final FSDirectory directory = FSDirectory.open(new File(Config.directoryPath));
+			final FSDirectory directory = FSDirectory.open(IndexManager.getIndexDirectory());
 
 			final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_46, analyzer);
 			final IndexWriter writer = new IndexWriter(directory, config);
 
 			final Document doc = new Document();
-			doc.add(new Field(field, value, Field.Store.YES, Field.Index.ANALYZED, Field.TermVector.WITH_POSITIONS_OFFSETS));
+			IndexSchema.getInstance().addFields(doc, field, value);
 			writer.addDocument(doc);
+			// the index no longer mirrors its source file
+			writer.setCommitData(new HashMap<String, String>());
 			writer.close();
 			directory.close();
+			IndexManager.refresh();
 		}
 		catch (CorruptIndexException e) {
 			// TODO Auto-generated catch block
@@ -344,53 +432,56 @@ public class SearchEngineUtils {
 		return results;
 	}
 
-	private static void indexExcelFile(final String srcFile) {
-
-		try {
-			final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
-			final FSDirectory directory = FSDirectory.open(new File(Config.directoryPath));
-			final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_46, analyzer);
-			final IndexWriter writer = new IndexWriter(directory, config);
-			final FileInputStream file = new FileInputStream(srcFile);
-			final HSSFWorkbook wb = new HSSFWorkbook(file);
-			final int sheetNo = wb.getNumberOfSheets();
-			for (int i = 0; i < sheetNo; i++) {
-				final HSSFSheet sheet = wb.getSheetAt(i);
-
-				int rowIndex = 0;
-				final ArrayList<String> fields = POIUtils.getRowFromExcel(srcFile, sheet.getSheetName());
-
-				int columnIndex = 0;
-				final int rowNo = POIUtils.NumRows(sheet, columnIndex);
-				// iterate row by row
-				for (rowIndex = 1; rowIndex < rowNo; rowIndex++) { // Row 0 =
-					                                               // field,
-					                                               // Row 1...N
-					                                               // = values
-					final ArrayList<String> values = POIUtils.getRowFromExcel(srcFile, sheet.getSheetName(), rowIndex);
-					final Document doc = new Document();
-					for (int j = 0; j < fields.size(); j++) {
-						final String field = fields.get(j);
-						if (values.size() > j) {
-							final String value = values.get(j);
-							if (value != null && !value.equals("")) {
-								doc.add(new Field(field, value, Field.Store.YES, Field.Index.ANALYZED, TermVector.WITH_POSITIONS_OFFSETS));
-							}
-						}
-					}
+	/**
+	 * Open a writer on an index directory and wrap it in an ingester. With "bug.analysis.index.threads" > 1 rows are
+	 * handed to a pool of worker threads through a bounded queue of "bug.analysis.index.queue.size" rows.
+	 * 
+	 * @param target
+	 * @param incremental
+	 * @param fingerprint
+	 *            : recorded in the commit user-data, may be null
+	 * @return
+	 * @throws IOException
+	 */
+	private static IndexIngester openIngester(final File target, final boolean incremental, final Map<String, String> fingerprint) throws IOException {
+
+		final int threads = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.index.threads"), 1);
+		final int queueSize = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.index.queue.size"), 1000);
+
+		final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
+		final FSDirectory directory = FSDirectory.open(target);
+		final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_46, analyzer);
+		final IndexIngester ingester;
+		if (threads > 1) {
+			config.setMaxThreadStates(threads);
+			ingester = new PipelinedIngester(new IndexWriter(directory, config), incremental, threads, queueSize);
+		} else {
+			ingester = new IndexIngester(new IndexWriter(directory, config), incremental);
+		}
+		ingester.setCommitData(fingerprint);
+		ingester.setDeleteMissing(Boolean.parseBoolean(Config.getInstance().getProperty("bug.analysis.index.delete.missing")));
+		return ingester;
+	}
 
-					if (rowIndex == 984) {
-						System.out.println(rowIndex + ":" + values);
-					}
+	private static boolean indexExcelFile(final String srcFile, final File target, final boolean incremental,
+	                                      final Map<String, String> fingerprint) {
 
-					writer.addDocument(doc);
+		try {
+			final IndexIngester ingester = openIngester(target, incremental, fingerprint);
+			boolean success = false;
+			try {
+				// stream records straight into the writer instead of loading the workbook
+				ExcelEventReader.read(srcFile, new IngestRowHandler(ingester));
+				success = true;
+			}
+			finally {
+				// also on a RuntimeException of the reader, or the writer lock and the workers would outlive the run
+				if (!success) {
+					ingester.abort();
 				}
-				System.out.println(">>>Index statistics: sheet=" + sheet.getSheetName() + ";docNO=" + (rowNo - 1));
 			}
-
-			writer.close();
-			directory.close();
-			analyzer.close();
+			ingester.close();
+			return true;
 		}
 		catch (CorruptIndexException e) {
 			// TODO Auto-generated catch block
@@ -404,45 +495,83 @@ public class SearchEngineUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		return false;
+	}
+
+	/**
+	 * Feed rows to an {@link IndexIngester}: the first row of each sheet defines the fields, every following row is a
+	 * document.
+	 * 
+	 */
+	private static class IngestRowHandler implements RowHandler {
+
+		private final IndexIngester ingester;
+
+		private String sheetName = null;
+
+		private List<String> fields = null;
+
+		private int docNo = 0;
+
+		IngestRowHandler(final IndexIngester ingester) {
+
+			this.ingester = ingester;
+		}
+
+		@Override
+		public void startSheet(final String sheetName) {
+
+			this.sheetName = sheetName;
+			this.fields = null;
+			this.docNo = 0;
+		}
+
+		@Override
+		public void handleRow(final int rowIndex, final List<String> values) throws IOException {
+
+			if (fields == null) {
+				fields = Lists.newArrayList(values);
+			} else {
+				ingester.add(fields, values);
+				docNo++;
+			}
+		}
+
+		@Override
+		public void endSheet() {
+
+			System.out.println(">>>Index statistics: sheet=" + sheetName + ";docNO=" + docNo);
+		}
 	}
 
 	/**
 	 * Index all fields defined in a CSV file
 	 * 
 	 * @param srcFile
+	 * @param target
+	 * @param incremental
+	 * @param fingerprint
+	 * @return false if the file could not be indexed completely
 	 */
-	private static void indexCSVFile(final String srcFile) {
+	private static boolean indexCSVFile(final String srcFile, final File target, final boolean incremental,
+	                                      final Map<String, String> fingerprint) {
 
 		try {
-			final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
-			final FSDirectory directory = FSDirectory.open(new File(Config.directoryPath));
-			final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_46, analyzer);
-			final IndexWriter writer = new IndexWriter(directory, config);
-
-			final BufferedReader br = new BufferedReader(new FileReader(srcFile));
-			String line = br.readLine();
-			final String[] fields = line.split(",");
-
-			int counter = 0;
-			while ((line = br.readLine()) != null) {
-				String[] values = line.split(",");
-				Document doc = new Document();
-				for (int i = 0; i < fields.length; i++) {
-					final String field = fields[i];
-					final String value = values[i];
-					doc.add(new Field(field, value, Field.Store.YES, Field.Index.ANALYZED, TermVector.WITH_POSITIONS_OFFSETS));
-					if (counter == 220) {
-						System.out.println(counter + ":" + field + "=" + value);
-					}
+			final IndexIngester ingester = openIngester(target, incremental, fingerprint);
+			boolean success = false;
+			try {
+				// first record = fields, handles quoted commas and multi-line cells
+				CSVReader.read(srcFile, new IngestRowHandler(ingester));
+				success = true;
+			}
+			finally {
+				// also on a RuntimeException of the reader, or the writer lock and the workers would outlive the run
+				if (!success) {
+					ingester.abort();
 				}
-				writer.addDocument(doc);
-				counter++;
-
 			}
-
-			writer.close();
-			directory.close();
-			br.close();
+			ingester.close();
+			return true;
 		}
 		catch (CorruptIndexException e) {
 			// TODO Auto-generated catch block
@@ -456,15 +585,15 @@ public class SearchEngineUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		return false;
 	}
 
 	public static TopDocs search(final Query query, final int TopN) {
 
 		TopDocs docs = null;
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-			final IndexSearcher searcher = new IndexSearcher(reader);
-
+			searcher = IndexManager.acquire();
 			docs = searcher.search(query, TopN);
 		}
 		catch (CorruptIndexException e) {
@@ -475,6 +604,9 @@ public class SearchEngineUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 
 		return docs;
 	}
@@ -496,9 +628,9 @@ public class SearchEngineUtils {
 
 	public static void showSearchResult(final TopDocs docs, final ArrayList<String> fields, final StringBuilder sb) {
 
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-			final IndexSearcher searcher = new IndexSearcher(reader);
+			searcher = IndexManager.acquire();
 			final ScoreDoc[] hits = docs.scoreDocs;
 			sb.append("Matched:" + hits.length).append("\n");
 
@@ -513,7 +645,6 @@ public class SearchEngineUtils {
 				sb.append("\n");
 			}
 			System.out.println(sb.toString());
-			reader.close();
 			final String filePath = "./resource/SearchResult.txt";
 			final boolean overwrite = true;
 			DataUtils.saveToFile(sb.toString(), filePath, overwrite);
@@ -526,6 +657,9 @@ public class SearchEngineUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 	}
 
 	public static String printConfusionMatrix(final String[] labels, final double[][] similarities) {
@@ -650,6 +784,30 @@ public class SearchEngineUtils {
 		return SearchEngineUtils.generateSummariedBugReport(SearchEngineUtils.getTermsAndSort(indexField, keywords), keywords, indexField);
 	}
 	
+	/**
+	 * Like {@link #generateSummarizedBugReport(String, String, String)}, but only lists the smallest set of keywords
+	 * found by {@link CoverageUtils#getGreedyCover(String, List, double)} that covers targetCoverage of the bug reports,
+	 * in the order they were picked.
+	 * 
+	 * @param indexField
+	 * @param bugReportFile
+	 * @param keywordFile
+	 * @param targetCoverage
+	 *            : 0..1
+	 * @return
+	 */
+	public static ArrayList<ArrayList<String>> generateKeywordCoverReport(final String indexField,
+	                                                                      final String bugReportFile,
+	                                                                      final String keywordFile,
+	                                                                      final double targetCoverage) {
+
+		SearchEngineUtils.indexFile(bugReportFile);
+		final ArrayList<String> keywords = new DataUtils<String>().toLowerCase(POIUtils.getColumnFromExcel(keywordFile));
+		final TermFrequencyObject obj = SearchEngineUtils.getTermsAndSort(indexField, keywords);
+		final List<String> cover = CoverageUtils.getGreedyCover(indexField, obj.getTermList(), targetCoverage);
+		return SearchEngineUtils.generateSummariedBugReport(new TermFrequencyObject(cover, obj.getTermFreqMap()), keywords, indexField);
+	}
+
 	private static ArrayList<ArrayList<String>> generateSummariedBugReport(final TermFrequencyObject obj,
 	                                                                      final ArrayList<String> keywords,
 	                                                                      final String indexField) {
@@ -674,20 +832,12 @@ public class SearchEngineUtils {
 		result.add(row);
 
 		final DecimalFormat df = new DecimalFormat("0.000");
-		final BitSet coveredDocs = new BitSet();
+		final int[] newCoverage = CoverageUtils.getNewCoverage(indexField, termList);
 		int coverage = 0;
 		for (int j = 0; j < termList.size(); j++) {
 			final String term = termList.get(j);
-			final TopDocs docs = SearchEngineUtils.search(indexField, term, totalDocs);
-			int coverageContribution = 0;
-			for (int i = 0; i < docs.scoreDocs.length; i++) {
-				final int docId = docs.scoreDocs[i].doc;
-				if (coveredDocs.get(docId) == false) {
-					coverageContribution++;
-					coverage++;
-					coveredDocs.set(docId, true);
-				}
-			}
+			final int coverageContribution = newCoverage[j];
+			coverage += coverageContribution;
 
 			row = Lists.newArrayList();
 			row.add(term);
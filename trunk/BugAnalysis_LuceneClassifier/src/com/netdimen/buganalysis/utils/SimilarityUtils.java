@@ -2,28 +2,46 @@ package com.netdimen.buganalysis.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-
-import org.apache.commons.math.linear.OpenMapRealVector;
-import org.apache.commons.math.linear.RealVectorFormat;
-import org.apache.commons.math.linear.SparseRealVector;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
-import org.apache.lucene.search.similarities.TFIDFSimilarity;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.netdimen.buganalysis.config.Config;
 
 /**
@@ -40,75 +58,18 @@ import com.netdimen.buganalysis.config.Config;
  */
 public class SimilarityUtils {
 
-	private class DocVector {
-
-		public Map<String, Integer> term_pos;
-
-		public Map<Integer, String> pos_terms;
-
-		public SparseRealVector vector;
-
-		public DocVector(final Map<String, Integer> terms) {
-
-			this.term_pos = terms;
-			this.vector = new OpenMapRealVector(terms.size());
-			pos_terms = new HashMap<Integer, String>();
-			final Iterator<String> termSet = term_pos.keySet().iterator();
-			while (termSet.hasNext()) {
-				final String term = termSet.next();
-				final int pos = term_pos.get(term);
-				pos_terms.put(pos, term);
-			}
-		}
-
-		public void setEntry(final String term, final int freq) {
-
-			if (term_pos.containsKey(term)) {
-				final int pos = term_pos.get(term);
-				vector.setEntry(pos, (double) freq);
-			}
-		}
-
-		public void setEntry(final int pos, final int freq) {
-
-			if (pos_terms.containsKey(pos)) {
-				vector.setEntry(pos, (double) freq);
-			}
-		}
-
-		public void normalize() {
-
-			final double sum = vector.getL1Norm();
-			vector = (SparseRealVector) vector.mapDivide(sum);
-		}
-
-		public double getEntry(final int pos) {
-
-			if (vector.getDimension() >= pos) {
-				return vector.getEntry(pos);
-			} else {
-				return -1;
-			}
-		}
+	private static final Analyzer ANALYZER = new StandardAnalyzer(Version.LUCENE_46);
 
-		public String toString() {
+	/** graphs opened read-only by {@link #getVectorIndex(String)}, by file */
+	private static final Map<File, VectorIndex> vectorIndexes = Maps.newHashMap();
 
-			return new RealVectorFormat().format(vector);
-		}
-
-		public double[] toVector() {
-
-			return vector.getData();
-		}
-	}
-
-	private double getCosineSimilarity(final DocVector d1, final DocVector d2) {
-
-		return (d1.vector.dotProduct(d2.vector)) / (d1.vector.getNorm() * d2.vector.getNorm());
-	}
+	/** graphs opened by {@link #updateVectorIndex(String)}, by file */
+	private static final Map<File, HnswIndex> vectorGraphs = Maps.newHashMap();
 
 	/**
-	 * Get the confusion matrix for a set of interested terms
+	 * Get the confusion matrix for a set of interested terms. Without a term list, all terms of the field are counted;
+	 * with "bug.analysis.vectorizer=hashing" these are the occupied hash buckets, labelled "#[bucket]", so the
+	 * dictionary is not enumerated.
 	 * 
 	 * @param field
 	 * @param interestedFieldList
@@ -116,87 +77,55 @@ public class SimilarityUtils {
 	 */
 	public void getPairwiseAnalysisBasedOnTerms(final String field, final ArrayList<String> interestedTermList) {
 
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
-
-			// 1. List all terms across all documents;
-			final Fields fields = MultiFields.getFields(reader);
-			Terms terms_temp = fields.terms(field);
-			TermsEnum termsEnum = terms_temp.iterator(null);
-
-			final Map<String, Integer> terms = Maps.newHashMap();
-			final Map<Integer, String> pos_terms = Maps.newHashMap();
-			int pos = 0;
-			BytesRef byteRef = null;
-			if (interestedTermList == null) {
-				while ((byteRef = termsEnum.next()) != null) {
-					final String termText = new String(byteRef.bytes, byteRef.offset, byteRef.length);
-					terms.put(termText, pos);
-					pos_terms.put(pos, termText);
-					pos++;
-				}
-			} else {
-				for (int i = 0; i < interestedTermList.size(); i++) {
-					final String termText = interestedTermList.get(i);
-					terms.put(termText, pos);
-					pos_terms.put(pos, termText);
-					pos++;
-				}
-			}
-
-			// 2. Construct term vector for each document
-			DocVector[] docs = new DocVector[reader.maxDoc()];
-			for (int i = 0; i < reader.maxDoc(); i++) {
-				final int docID = i;
-				terms_temp = reader.getTermVector(docID, field);
-
-				if (terms_temp != null) {
-					final DocVector doc = new DocVector(terms);
-					termsEnum = terms_temp.iterator(null);
-					while ((byteRef = termsEnum.next()) != null) {
-						final String termText = byteRef.utf8ToString();
-						final int termFreq = termsEnum.docFreq();
-						doc.setEntry(termText, termFreq);
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
+
+			final int parallelism = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.threads"), 1);
+			final HashingVectorizer vectorizer = getHashingVectorizer();
+			final String[] labels;
+			final int[][] pairwise_matrix;
+			if (interestedTermList == null && vectorizer != null) {
+				// 1. List all occupied buckets across all documents
+				final DocTermMatrix docs = vectorizer.vectorize(reader, field, reader.maxDoc(), ANALYZER);
+				final int[] docFreqs = docs.getDocFreqs();
+				final List<Integer> columns = Lists.newArrayList();
+				for (int column = 0; column < docFreqs.length; column++) {
+					if (docFreqs[column] > 0) {
+						columns.add(column);
 					}
-					docs[i] = doc;
 				}
-			}
-
-			// 3. Pairwise analysis: for each pair of terms
-			final int total = terms.values().size();
-			final int[][] pairwise_matrix = new int[total][total];
+				labels = new String[columns.size()];
+				for (int i = 0; i < labels.length; i++) {
+					labels[i] = docs.getTerm(columns.get(i));
+				}
 
-			// for i-th term
-			for (int i = 0; i < total; i++) {
-				// for (i, i) element
-				pairwise_matrix[i] = new int[total];
-				int counter = 0;
-				for (int k = 0; k < docs.length; k++) {
-					final DocVector doc = docs[k];
-					if (doc != null && doc.getEntry(i) > 0) {
-						counter++; // add counter if contains i-th element
+				// 2. Pairwise analysis: documents shared by each pair of buckets
+				pairwise_matrix = TermCooccurrence.count(docs, Ints.toArray(columns), parallelism);
+			} else {
+				// 1. List all terms across all documents;
+				final List<String> terms = Lists.newArrayList();
+				if (interestedTermList == null) {
+					final Terms fieldTerms = MultiFields.getTerms(reader, field);
+					if (fieldTerms != null) {
+						final TermsEnum termsEnum = fieldTerms.iterator(null);
+						BytesRef byteRef = null;
+						while ((byteRef = termsEnum.next()) != null) {
+							terms.add(byteRef.utf8ToString());
+						}
 					}
-				}
-				pairwise_matrix[i][i] = counter;
-
-				// for (i, j) element (j > i)
-				for (int j = i + 1; j < terms.values().size(); j++) {
-					counter = 0;
-					// for each document
-					for (int k = 0; k < docs.length; k++) {
-						final DocVector doc = docs[k];
-						if (doc != null && doc.getEntry(i) > 0 && doc.getEntry(j) > 0) {
-							// add counter if contains both i- and j-the element
-							counter++;
+				} else {
+					for (final String termText : interestedTermList) {
+						if (!terms.contains(termText)) {
+							terms.add(termText);
 						}
 					}
-					pairwise_matrix[i][j] = counter;
 				}
-			}
+				labels = terms.toArray(new String[terms.size()]);
 
-			final String[] labels = new String[total];
-			for (int i = 0; i < labels.length; i++) {
-				labels[i] = pos_terms.get(i);
+				// 2. Pairwise analysis: documents shared by each pair of terms
+				pairwise_matrix = TermCooccurrence.count(reader, field, terms, parallelism);
 			}
 
 			final String result = SearchEngineUtils.printConfusionMatrix(labels, pairwise_matrix);
@@ -208,6 +137,9 @@ public class SimilarityUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 	}
 
 	public void getPairwiseAnalysisBasedOnTerms(final String field) {
@@ -215,37 +147,121 @@ public class SimilarityUtils {
 		this.getPairwiseAnalysisBasedOnTerms(field, null);
 	}
 
-	public DocVector[] genTFIDFModel(final String field) {
+	/**
+	 * Build the co-occurrence matrix of all terms of a field into ./resource/Cooccurrence.dat and report the PMI of its
+	 * sampleSize most frequent terms.
+	 * 
+	 * @param field
+	 *            : a field with term vectors
+	 * @param sampleSize
+	 */
+	public void getCooccurrenceAnalysis(final String field, final int sampleSize) {
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final long maxEntries = NumberUtils.toLong(Config.getInstance().getProperty("bug.analysis.cooccurrence.maxEntries"), 4000000L);
+			final CooccurrenceMatrix matrix = CooccurrenceMatrix.build(searcher.getIndexReader(), field, new File("./resource/Cooccurrence.dat"),
+			                                                           maxEntries);
+
+			final int[] sample = matrix.getTopTerms(sampleSize);
+			final String[] labels = new String[sample.length];
+			for (int i = 0; i < sample.length; i++) {
+				labels[i] = matrix.getTerm(sample[i]);
+			}
+			if (labels.length > 0) {
+				final String result = SearchEngineUtils.printConfusionMatrix(labels, matrix.getPMI(sample));
+				final boolean overwrite = true;
+				final String filePath = "./resource/Cooccurrence.txt";
+				DataUtils.saveToFile(result, filePath, overwrite);
+			}
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+	}
+
+	public DocTermMatrix genTFIDFModel(final String field) {
 
-		IndexReader reader = null;
+		int maxDoc = 0;
+		IndexSearcher searcher = null;
 		try {
-			reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			maxDoc = searcher.getIndexReader().maxDoc();
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 
-		return this.genTFIDFModel(field, reader.maxDoc());
+		return this.genTFIDFModel(field, maxDoc);
 	}
 
 	/**
-	 * Lucene API:use TFIDFSimilarity class to get TF-IDF model
+	 * Lucene API:use TFIDFSimilarity class to get TF-IDF model, see {@link TfIdfModel}
 	 * 
 	 * @param field
+	 * @return null if the index cannot be read
 	 */
-	public void genLuceneTFIDFModel(final String field) {
+	public TfIdfModel genLuceneTFIDFModel(final String field) {
 
-		IndexReader reader = null;
+		IndexSearcher searcher = null;
 		try {
-			reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			final TfIdfModel model = TfIdfModel.build(searcher.getIndexReader(), field);
+			System.out.println(">>>TF-IDF model: field=" + field + ";terms=" + model.getNumTerms() + ";docs="
+			                   + model.getWeights().getNumRows() + ";weights=" + model.getWeights().getSize());
+			return model;
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		this.getIdfs(reader, field);
-		this.getTF(reader, field);
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the TF-IDF model of a field, mapped from tfidf_[field].model in the index directory. The file is built on
+	 * first use and rebuilt whenever the index has changed since, so every index generation writes it once.
+	 * 
+	 * @param field
+	 * @return null if the index cannot be read
+	 */
+	public static MappedTfIdfModel getTfIdfModel(final String field) {
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final long version = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+			final File file = new File(IndexManager.getIndexDirectory(), "tfidf_" + field + ".model");
+			final long start = System.currentTimeMillis();
+			if (MappedTfIdfModel.readIndexVersion(file) != version) {
+				MappedTfIdfModel.write(TfIdfModel.build(searcher.getIndexReader(), field), version, file);
+				System.out.println(">>>TF-IDF model: field=" + field + " built in " + (System.currentTimeMillis() - start) + "ms");
+			}
+			final MappedTfIdfModel model = MappedTfIdfModel.open(file);
+			System.out.println(">>>TF-IDF model: field=" + field + ";terms=" + model.getNumTerms() + ";docs=" + model.getNumRows()
+			                   + ";weights=" + model.getSize() + ";ready in " + (System.currentTimeMillis() - start) + "ms");
+			return model;
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
 	}
 
 	/**
@@ -255,12 +271,14 @@ public class SimilarityUtils {
 	 */
 	public void genTFIDFModelBasedOnLucene(final String field) {
 
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
 			// 1. list all terms across all documents
 			final Fields fields = MultiFields.getFields(reader);
 			Terms terms_temp = fields.terms(field);
-			TermsEnum termsEnum = terms_temp.iterator(null);
+			TermsEnum termsEnum = terms_temp != null ? terms_temp.iterator(null) : null;
 
 			// 2. list doc frequency and term frequency
 			// API 1: DF: termsEnum.docFreq(); TF: docsEnum.freq()
@@ -283,243 +301,982 @@ public class SimilarityUtils {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
 	}
 
-	TFIDFSimilarity tfidfSIM = new DefaultSimilarity();
+	/**
+	 * Naive methods: Get the TF-IDF model for a specific set of documents
+	 * 
+	 * @param field
+	 * @param maxDoc
+	 * @return the term frequency matrix
+	 */
+	public DocTermMatrix genTFIDFModel(final String field, final int maxDoc) {
 
-	Map<String, Float> docFrequencies = new HashMap<>();
+		// 1.Generate TF-Matrix
+		final DocTermMatrix TFMatrix = this.getTermVector(field, maxDoc);
 
-	Map<String, Float> termFrequencies = new HashMap<>();
+		// 2.Generate IDF-Matrix: for i-th term t, the num of documents that contain t
+		final int[] docFreqs = TFMatrix.getDocFreqs();
 
-	Map<String, Float> tf_Idf_Weights = new HashMap<>();
+		// 3. Get labels of the columns some document has, hashed matrices have 2^bits columns of which few are used
+		final List<Integer> columns = Lists.newArrayList();
+		for (int column = 0; column < docFreqs.length; column++) {
+			if (docFreqs[column] > 0) {
+				columns.add(column);
+			}
+		}
+		final String[] terms = new String[columns.size()];
+		final int[] positions = new int[docFreqs.length];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = TFMatrix.getTerm(columns.get(i));
+			positions[columns.get(i)] = i;
+		}
 
-	Map<Integer, Map<String, Float>> doc_term_tf_Idf_Weights = new HashMap<>();
+		// 4. Print TF matrix
+		final double[][] tfMatrix = new double[TFMatrix.getNumRows()][terms.length];
+		for (int i = 0; i < tfMatrix.length; i++) {
+			for (int k = TFMatrix.getRowStart(i); k < TFMatrix.getRowEnd(i); k++) {
+				tfMatrix[i][positions[TFMatrix.getColumn(k)]] = TFMatrix.getValue(k);
+			}
+		}
+		System.out.println("Term Frequency:");
+		SearchEngineUtils.printConfusionMatrix(terms, tfMatrix);
 
-	Map<String, Float> getIdfs(final IndexReader reader, final String fieldStr) {
+		// Print IDF matrix
+		final double[][] idfMatrix = new double[1][terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			idfMatrix[0][i] = docFreqs[columns.get(i)];
+		}
+		System.out.println("Doc Frequency:");
+		SearchEngineUtils.printConfusionMatrix(terms, idfMatrix);
 
+		return TFMatrix;
+	}
+
+	/**
+	 * Each document is represented as a term vector (terms across all documents). All vectors share one sparse
+	 * matrix, see {@link DocTermMatrix}. With "bug.analysis.vectorizer=hashing" the columns are hash buckets of a
+	 * {@link HashingVectorizer} instead of the terms of the field's dictionary.
+	 * 
+	 * @param field
+	 * @param maxDoc
+	 * @return
+	 */
+	public DocTermMatrix getTermVector(final String field, final int maxDoc) {
+
+		IndexSearcher searcher = null;
 		try {
-			final Fields fields = MultiFields.getFields(reader);
-			for (final String field : fields) {
-				TermsEnum termEnum = MultiFields.getTerms(reader, field).iterator(null);
-				BytesRef bytesRef;
-				while ((bytesRef = termEnum.next()) != null) {
-					final String term = bytesRef.utf8ToString();
-					final float idf = tfidfSIM.idf(termEnum.docFreq(), reader.numDocs());
-					docFrequencies.put(term, idf);
-				}
+			searcher = IndexManager.acquire();
+			final HashingVectorizer vectorizer = getHashingVectorizer();
+			if (vectorizer != null) {
+				return vectorizer.vectorize(searcher.getIndexReader(), field, maxDoc, ANALYZER);
 			}
+			return DocTermMatrix.build(searcher.getIndexReader(), field, maxDoc);
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
+
+		return new DocTermMatrix(new String[0], new int[1], new int[0], new float[0]);
+	}
+
+	/**
+	 * The vectorizer configured by "bug.analysis.vectorizer" with "bug.analysis.vectorizer.hashing.bits".
+	 * 
+	 * @return null for the default, one column per term of the dictionary
+	 */
+	private static HashingVectorizer getHashingVectorizer() {
 
-		return docFrequencies;
+		if (!"hashing".equals(Config.getInstance().getProperty("bug.analysis.vectorizer"))) {
+			return null;
+		}
+		return new HashingVectorizer(NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.vectorizer.hashing.bits"), 18));
 	}
 
-	public Map<String, Float> getTF(final IndexReader reader, final String field) {
+	/**
+	 * Pairwise document similarity
+	 * 
+	 * @param field
+	 * @param maxDoc
+	 *            : the number of docs to analyze
+	 */
+	public void getDocumentSimilarityBasedOnTermVector(final String field, final int maxDoc) {
+
+		final DocTermMatrix docs = this.getTermVector(field, maxDoc);
+		final int numDocs = docs.getNumRows();
+		final int parallelism = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.threads"), 1);
+		final double[][] similarities = getSimilarityMatrix(docs, parallelism);
 
+		final String[] labels = new String[numDocs];
+		for (int i = 0; i < numDocs; i++) {
+			labels[i] = i + "";
+		}
+
+		final String result = SearchEngineUtils.printConfusionMatrix(labels, similarities);
+		final boolean overwrite = true;
+		final String filePath = "./resource/DocSimilarity.txt";
+		DataUtils.saveToFile(result, filePath, overwrite);
+	}
+
+	/** rows and columns per tile: a tile's rows of the CSR matrix and the output rows stay in cache together */
+	private static final int TILE_SIZE = 64;
+
+	/**
+	 * Cosine similarity of every pair of rows; only the upper triangle (i < j) is filled. With parallelism > 1 the
+	 * triangle is cut into tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} cells that are computed on a
+	 * {@link ForkJoinPool}. Every cell is computed the same way in both modes, so the results are identical.
+	 * 
+	 * @param docs
+	 * @param parallelism
+	 * @return
+	 */
+	public static double[][] getSimilarityMatrix(final DocTermMatrix docs, final int parallelism) {
+
+		final int numDocs = docs.getNumRows();
+		final double[][] similarities = new double[numDocs][numDocs];
+		if (parallelism <= 1) {
+			for (int i = 0; i < numDocs; i++) {
+				for (int j = i + 1; j < numDocs; j++) {
+					similarities[i][j] = docs.cosine(i, j);
+				}
+			}
+			return similarities;
+		}
+
+		final int numBlocks = (numDocs + TILE_SIZE - 1) / TILE_SIZE;
+		final List<int[]> tiles = Lists.newArrayList();
+		for (int bi = 0; bi < numBlocks; bi++) {
+			for (int bj = bi; bj < numBlocks; bj++) {
+				tiles.add(new int[] { bi * TILE_SIZE, bj * TILE_SIZE });
+			}
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
 		try {
-			for (int docID = 0; docID < reader.maxDoc(); docID++) {
-				TermsEnum termsEnum = MultiFields.getTerms(reader, field).iterator(null);
-				DocsEnum docsEnum = null;
-
-				final Terms vector = reader.getTermVector(docID, field);
-				if (vector != null) {
-					termsEnum = vector.iterator(null);
-					if (termsEnum != null) {
-						BytesRef bytesRef = null;
-
-						final Map<String, Float> term_tf_Idf_Weights = new HashMap<>();
-
-						while ((bytesRef = termsEnum.next()) != null) {
-							if (termsEnum.seekExact(bytesRef)) {
-								final String term = bytesRef.utf8ToString();
-								float tf = 0;
-
-								docsEnum = termsEnum.docs(null, null, DocsEnum.FLAG_FREQS);
-								while (docsEnum.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
-									tf = tfidfSIM.tf(docsEnum.freq());
-									termFrequencies.put(term, tf);
-								}
-
-								if (docFrequencies.containsKey(term)) {
-									final float idf = docFrequencies.get(term);
-									final float w = tf * idf;
-									term_tf_Idf_Weights.put(term, w);
-								} else {
-									System.out.println("Term does not Exist in TF:" + term);
-								}
-							}
-						}
+			pool.invoke(new TileTask(docs, similarities, tiles, 0, tiles.size()));
+		}
+		finally {
+			pool.shutdown();
+		}
+		return similarities;
+	}
+
+	/**
+	 * Computes a range of tiles, splitting it in half until only a few tiles are left.
+	 *
+	 */
+	private static class TileTask extends RecursiveAction {
 
-						doc_term_tf_Idf_Weights.put(docID, term_tf_Idf_Weights);
+		private static final long serialVersionUID = 1L;
+
+		private static final int TILES_PER_TASK = 4;
+
+		private final DocTermMatrix docs;
+
+		private final double[][] similarities;
+
+		private final List<int[]> tiles;
+
+		private final int from;
+
+		private final int to;
+
+		TileTask(final DocTermMatrix docs, final double[][] similarities, final List<int[]> tiles, final int from, final int to) {
+
+			this.docs = docs;
+			this.similarities = similarities;
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > TILES_PER_TASK) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new TileTask(docs, similarities, tiles, from, mid), new TileTask(docs, similarities, tiles, mid, to));
+				return;
+			}
+
+			final int numDocs = docs.getNumRows();
+			for (int t = from; t < to; t++) {
+				final int rowStart = tiles.get(t)[0];
+				final int colStart = tiles.get(t)[1];
+				final int rowEnd = Math.min(rowStart + TILE_SIZE, numDocs);
+				final int colEnd = Math.min(colStart + TILE_SIZE, numDocs);
+				for (int i = rowStart; i < rowEnd; i++) {
+					for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+						similarities[i][j] = docs.cosine(i, j);
 					}
 				}
+			}
+		}
+	}
 
+	/**
+	 * Near-duplicate detection: list all pairs of documents whose cosine similarity on the field is at least threshold,
+	 * without comparing every pair (see {@link AllPairsSimilarity}). The pairs are saved with their ticket ids.
+	 * 
+	 * @param field
+	 * @param threshold
+	 *            : minimum cosine similarity, (0..1]
+	 * @return
+	 */
+	public List<AllPairsSimilarity.SimilarPair> getSimilarDocuments(final String field, final double threshold) {
+
+		List<AllPairsSimilarity.SimilarPair> pairs = Lists.newArrayList();
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
+			final DocTermMatrix docs = DocTermMatrix.build(reader, field, reader.maxDoc());
+			pairs = AllPairsSimilarity.join(docs, threshold);
+
+			final StringBuilder sb = new StringBuilder();
+			sb.append("Similar pairs:").append(pairs.size()).append("\tThreshold:").append(threshold).append("\n");
+			final DecimalFormat df = new DecimalFormat("0.000");
+			for (final AllPairsSimilarity.SimilarPair pair : pairs) {
+				final Document doc1 = searcher.doc(pair.getRow1());
+				final Document doc2 = searcher.doc(pair.getRow2());
+				sb.append(doc1.get(SearchEngineUtils.ID_FIELD))
+				  .append("\t")
+				  .append(doc2.get(SearchEngineUtils.ID_FIELD))
+				  .append("\t")
+				  .append(df.format(pair.getSimilarity()))
+				  .append("\t")
+				  .append(doc1.get(field))
+				  .append("\t")
+				  .append(doc2.get(field))
+				  .append("\n");
 			}
+			System.out.println(">>>Similar pairs: " + pairs.size());
+			final boolean overwrite = true;
+			final String filePath = "./resource/SimilarPairs.txt";
+			DataUtils.saveToFile(sb.toString(), filePath, overwrite);
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return pairs;
+	}
+
+	/**
+	 * Open the MinHash LSH index of a column with "bug.analysis.minhash.bands" bands of "bug.analysis.minhash.rows"
+	 * rows.
+	 */
+	private static MinHashLSH openLSH(final IndexReader reader, final String field) throws IOException {
 
-		return termFrequencies;
+		final int bands = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.minhash.bands"), 16);
+		final int rows = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.minhash.rows"), 4);
+		return new MinHashLSH(reader, field, bands, rows);
+	}
+
+	private static double getMinSimilarity() {
+
+		return NumberUtils.toDouble(Config.getInstance().getProperty("bug.analysis.minhash.similarity"), 0.5);
 	}
 
 	/**
-	 * Naive methods: Get the TF-IDF model for a specific set of documents
+	 * Near-duplicate detection in near-linear time: group documents whose MinHash signatures of the field collide in
+	 * at least one LSH band and whose estimated Jaccard similarity is at least "bug.analysis.minhash.similarity". The
+	 * groups are saved with ticket ids and field values. The field needs the "minhash" schema flag.
 	 * 
 	 * @param field
-	 * @param maxDoc
+	 * @return groups of doc ids
 	 */
-	public DocVector[] genTFIDFModel(final String field, final int maxDoc) {
+	public List<List<Integer>> getDuplicateGroups(final String field) {
 
-		final DocVector[] results = new DocVector[maxDoc];
+		List<List<Integer>> groups = Lists.newArrayList();
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final MinHashLSH lsh = openLSH(searcher.getIndexReader(), field);
+			groups = lsh.getCandidateGroups(getMinSimilarity());
+
+			final StringBuilder sb = new StringBuilder();
+			sb.append("Duplicate groups:").append(groups.size()).append("\n");
+			final DecimalFormat df = new DecimalFormat("0.000");
+			for (int g = 0; g < groups.size(); g++) {
+				final List<Integer> group = groups.get(g);
+				sb.append("-----------------------------------------------------------\n");
+				for (final Integer doc : group) {
+					final Document document = searcher.doc(doc);
+					sb.append(g + 1)
+					  .append("\t")
+					  .append(document.get(SearchEngineUtils.ID_FIELD))
+					  .append("\t")
+					  .append(df.format(lsh.getSimilarity(group.get(0), doc)))
+					  .append("\t")
+					  .append(document.get(field))
+					  .append("\n");
+				}
+			}
+			System.out.println(">>>Duplicate groups: " + groups.size());
+			final boolean overwrite = true;
+			final String filePath = "./resource/DuplicateGroups.txt";
+			DataUtils.saveToFile(sb.toString(), filePath, overwrite);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return groups;
+	}
 
-		// 1.Generate TF-Matrix
-		final DocVector[] TFMatrix = this.getTermVector(field, maxDoc);
-
-		// 2.Generate IDF-Matrix
-		final DocVector IDFMatrix = new DocVector(TFMatrix[0].term_pos);
-		for (int i = 0; i < IDFMatrix.term_pos.size(); i++) {
-			// for i-th term t, idf = N/(1+x); where x is the num of documents
-			// that contain t
-			int df = 0;
-			for (final DocVector doc : TFMatrix) {
-				double d = doc.getEntry(i);
-				if (d > 0) {
-					df++;
+	/**
+	 * Cluster the documents by their TF-IDF vectors of the field with spherical k-means, see {@link KMeansClustering}.
+	 * The clusters are saved with their top terms and members (ticket id, cosine to the centroid, field value), largest
+	 * cluster first. k and the maximum number of iterations are "bug.analysis.clustering.k" and
+	 * "bug.analysis.clustering.iterations".
+	 * 
+	 * @param field
+	 * @return null if the index cannot be read
+	 */
+	public KMeansClustering getClusters(final String field) {
+
+		final MappedTfIdfModel model = getTfIdfModel(field);
+		if (model == null) {
+			return null;
+		}
+		final int k = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.clustering.k"), 20);
+		final int maxIterations = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.clustering.iterations"), 20);
+		final int parallelism = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.similarity.threads"), 1);
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			if (((DirectoryReader) searcher.getIndexReader()).getVersion() != model.getIndexVersion()) {
+				System.out.println(">>>Index changed while clustering " + field + ", run again");
+				return null;
+			}
+
+			final long start = System.currentTimeMillis();
+			final KMeansClustering clustering = KMeansClustering.cluster(model, k, maxIterations, 0x5eed, parallelism);
+			System.out.println(">>>Clusters: k=" + clustering.getNumClusters() + ";iterations=" + clustering.getIterations() + ";objective="
+			                   + clustering.getObjective() + ";in " + (System.currentTimeMillis() - start) + "ms");
+
+			// members by cluster, most similar first; clusters by size
+			final List<List<Integer>> members = Lists.newArrayList();
+			for (int c = 0; c < clustering.getNumClusters(); c++) {
+				members.add(Lists.<Integer> newArrayList());
+			}
+			for (int row = 0; row < model.getNumRows(); row++) {
+				if (clustering.getAssignment(row) >= 0) {
+					members.get(clustering.getAssignment(row)).add(row);
+				}
+			}
+			for (final List<Integer> cluster : members) {
+				Collections.sort(cluster, new Comparator<Integer>() {
+
+					@Override
+					public int compare(final Integer row1, final Integer row2) {
+
+						final int c = Float.compare(clustering.getSimilarity(row2), clustering.getSimilarity(row1));
+						return c != 0 ? c : row1.compareTo(row2);
+					}
+				});
+			}
+			final List<Integer> order = Lists.newArrayList();
+			for (int c = 0; c < clustering.getNumClusters(); c++) {
+				order.add(c);
+			}
+			Collections.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(final Integer c1, final Integer c2) {
+
+					final int c = members.get(c2).size() - members.get(c1).size();
+					return c != 0 ? c : c1.compareTo(c2);
+				}
+			});
+
+			final StringBuilder sb = new StringBuilder();
+			sb.append("Clusters:").append(clustering.getNumClusters()).append("\n");
+			final DecimalFormat df = new DecimalFormat("0.000");
+			for (int i = 0; i < order.size(); i++) {
+				final int c = order.get(i);
+				sb.append("-----------------------------------------------------------\n");
+				sb.append(i + 1).append("\tsize=").append(members.get(c).size()).append("\tterms=").append(clustering.getTopTerms(c, 10)).append("\n");
+				for (final Integer row : members.get(c)) {
+					final Document document = searcher.doc(row);
+					sb.append(i + 1)
+					  .append("\t")
+					  .append(document.get(SearchEngineUtils.ID_FIELD))
+					  .append("\t")
+					  .append(df.format(clustering.getSimilarity(row)))
+					  .append("\t")
+					  .append(document.get(field))
+					  .append("\n");
 				}
 			}
-			IDFMatrix.setEntry(i, df);
+			final boolean overwrite = true;
+			final String filePath = "./resource/Clusters.txt";
+			DataUtils.saveToFile(sb.toString(), filePath, overwrite);
+			return clustering;
 		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
+	}
 
-		// 3. Get labels
-		final Map<Integer, String> pos_terms = IDFMatrix.pos_terms;
-		final String[] terms = new String[pos_terms.size()];
-		for (int i = 0; i < terms.length; i++) {
-			final String term = pos_terms.get(i);
-			terms[i] = term;
+	/**
+	 * Find indexed documents that are likely duplicates of a new title, most similar first. Candidates come from the
+	 * LSH buckets and are kept if their estimated Jaccard similarity is at least "bug.analysis.minhash.similarity".
+	 * 
+	 * @param field
+	 * @param title
+	 * @return ticket ids
+	 */
+	public List<String> findDuplicates(final String field, final String title) {
+
+		final List<String> ids = Lists.newArrayList();
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final MinHashLSH lsh = openLSH(searcher.getIndexReader(), field);
+			final DecimalFormat df = new DecimalFormat("0.000");
+			for (final Integer doc : lsh.query(title, getMinSimilarity())) {
+				final Document document = searcher.doc(doc);
+				ids.add(document.get(SearchEngineUtils.ID_FIELD));
+				System.out.println(df.format(lsh.getSimilarity(doc, title)) + "\t" + document.get(SearchEngineUtils.ID_FIELD) + "\t"
+				                   + document.get(field));
+			}
 		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return ids;
+	}
 
-		// 4. Print TF matrix
-		DocVector doc = TFMatrix[0];
-		final double[][] tfMatrix = new double[maxDoc][doc.pos_terms.size()];
-		for (int i = 0; i < tfMatrix.length; i++) {
-			doc = TFMatrix[i];
-			tfMatrix[i] = doc.toVector();
+	/**
+	 * Get the k documents most similar to a ticket: its term vector becomes a query with one SHOULD clause per term,
+	 * boosted by the term frequency, which is scored against the shared searcher with a bounded top-k collector. The
+	 * ticket itself is excluded.
+	 * 
+	 * @param field
+	 *            : a field with term vectors
+	 * @param ticketId
+	 * @param k
+	 * @return null if the ticket is not indexed or has no term vector for the field
+	 */
+	public TopDocs getSimilarBugs(final String field, final String ticketId, final int k) {
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			return getSimilarBugs(searcher, field, ticketId, k);
 		}
-		System.out.println("Term Frequency:");
-		SearchEngineUtils.printConfusionMatrix(terms, tfMatrix);
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
+	}
 
-		// Print IDF matrix
-		final double[][] idfMatrix = new double[1][];
-		idfMatrix[0] = new double[doc.pos_terms.size()];
-		for (int i = 0; i < idfMatrix.length; i++) {
-			idfMatrix[0] = IDFMatrix.toVector();
+	static TopDocs getSimilarBugs(final IndexSearcher searcher, final String field, final String ticketId, final int k) throws IOException {
+
+		final Term key = new Term(SearchEngineUtils.KEY_FIELD, ticketId);
+		final TopDocs hit = searcher.search(new TermQuery(key), 1);
+		if (hit.totalHits == 0) {
+			System.out.println(">>>Ticket " + ticketId + " is not indexed");
+			return null;
 		}
-		System.out.println("Doc Frequency:");
-		SearchEngineUtils.printConfusionMatrix(terms, idfMatrix);
 
-		return results;
+		final Terms vector = searcher.getIndexReader().getTermVector(hit.scoreDocs[0].doc, field);
+		if (vector == null) {
+			System.out.println(">>>Ticket " + ticketId + " has no term vector for " + field);
+			return null;
+		}
+
+		final BooleanQuery query = new BooleanQuery();
+		final TermsEnum termsEnum = vector.iterator(null);
+		BytesRef bytesRef = null;
+		while ((bytesRef = termsEnum.next()) != null && query.clauses().size() < BooleanQuery.getMaxClauseCount() - 1) {
+			final TermQuery termQuery = new TermQuery(new Term(field, BytesRef.deepCopyOf(bytesRef)));
+			termQuery.setBoost(termsEnum.totalTermFreq());
+			query.add(termQuery, Occur.SHOULD);
+		}
+		query.add(new TermQuery(key), Occur.MUST_NOT);
+		return searcher.search(query, k);
 	}
 
 	/**
-	 * Each document is represented as a term vector (terms across all documents)
+	 * Get the TF-IDF rows of a field projected into dense vectors, see {@link RandomProjection}. The number of
+	 * dimensions is bug.analysis.projection.dimensions.
 	 * 
 	 * @param field
-	 * @param maxDoc
-	 * @return
+	 * @return null if the index cannot be read
+	 */
+	public static DenseVectors getProjectedVectors(final String field) {
+
+		final MappedTfIdfModel model = getTfIdfModel(field);
+		if (model == null) {
+			return null;
+		}
+		final int dimensions = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.projection.dimensions"), 256);
+		final long start = System.currentTimeMillis();
+		final DenseVectors vectors = new RandomProjection(dimensions).project(model);
+		System.out.println(">>>Projection: field=" + field + ";dimensions=" + dimensions + ";docs=" + vectors.getNumRows() + ";in "
+		                   + (System.currentTimeMillis() - start) + "ms");
+		return vectors;
+	}
+
+	/**
+	 * Bring the HNSW graphs of the fields in "bug.analysis.hnsw.fields" up to date with the live index, see
+	 * {@link #updateVectorIndex(String)}. Called by {@link SearchEngineUtils#indexFile(String, boolean)} once the index
+	 * is refreshed.
 	 */
-	public DocVector[] getTermVector(final String field, final int maxDoc) {
+	public static void updateVectorIndexes() {
 
-		final DocVector[] docs = new DocVector[maxDoc];
+		final String fields = Config.getInstance().getProperty("bug.analysis.hnsw.fields");
+		for (final String field : (fields != null ? fields : "Subject").split(",")) {
+			if (!field.trim().equals("")) {
+				updateVectorIndex(field.trim());
+			}
+		}
+	}
+
+	/**
+	 * Bring the HNSW graph over the projected TF-IDF vectors of a field, see {@link HnswIndex}, up to date with the live
+	 * index. It is kept in hnsw_[field].index in the index directory. Graph nodes are document revisions: new or changed
+	 * tickets are added and the revisions no longer in the index are deleted, so an incremental index run only adds what
+	 * it re-analyzed. Vectors are weighted with the idf at the time they are added; a full index run starts a new
+	 * generation, and so a new graph. So does a graph with more deleted nodes than the share
+	 * "bug.analysis.hnsw.maxDeleted" of its size.
+	 * 
+	 * @param field
+	 */
+	public static void updateVectorIndex(final String field) {
+
+		IndexSearcher searcher = null;
 		try {
-			final IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(Config.directoryPath)));
+			searcher = IndexManager.acquire();
+			updateVectorIndex(searcher.getIndexReader(), field);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+	}
 
-			// 1. list all terms across all documents
-			final Fields fields = MultiFields.getFields(reader);
-			Terms terms_temp = fields.terms(field);
-			TermsEnum termsEnum = terms_temp.iterator(null);
+	/**
+	 * Get the HNSW graph of a field as committed by the last {@link #updateVectorIndex(String)}, for searching only.
+	 * 
+	 * @param field
+	 * @return null if the index cannot be read or the graph is not available
+	 */
+	public static HnswIndex getVectorIndex(final String field) {
 
-			if (termsEnum != null) {
-				final Map<String, Integer> terms = new HashMap<String, Integer>();
-				int pos = 0;
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final VectorIndex index = getVectorIndex(searcher.getIndexReader(), field);
+			return index != null ? index.graph : null;
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
+	}
 
-				BytesRef byteRef = null;
-				while ((byteRef = termsEnum.next()) != null) {
-					String termText = new String(byteRef.bytes, byteRef.offset, byteRef.length);
-					terms.put(termText, pos++);
+	private static void updateVectorIndex(final IndexReader reader, final String field) throws IOException {
+
+		final int dimensions = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.projection.dimensions"), 256);
+		final int m = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.hnsw.m"), 16);
+		final int efConstruction = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.hnsw.efConstruction"), 100);
+		final double maxDeleted = NumberUtils.toDouble(Config.getInstance().getProperty("bug.analysis.hnsw.maxDeleted"), 0.2);
+		final long version = ((DirectoryReader) reader).getVersion();
+		final File file = getVectorIndexFile(reader, field);
+		synchronized (vectorGraphs) {
+			HnswIndex graph = vectorGraphs.get(file);
+			if (graph == null || graph.getDimensions() != dimensions) {
+				for (final File other : Lists.newArrayList(vectorGraphs.keySet())) {
+					if (isReplacedBy(other, file)) {
+						vectorGraphs.remove(other).close();
+					}
 				}
+				graph = HnswIndex.open(file, dimensions, m, efConstruction);
+				vectorGraphs.put(file, graph);
+			}
+			if (graph.getIndexVersion() == version) {
+				return;
+			}
 
-				// 2. initialize term frequency for a specific doc
-				for (int i = 0; i < maxDoc; i++) {
-					final int docID = i;
-					terms_temp = reader.getTermVector(docID, field);
-					if (terms_temp != null) {
-						final DocVector doc = new DocVector(terms);
-						termsEnum = terms_temp.iterator(null);
-						while ((byteRef = termsEnum.next()) != null) {
-							final String termText = byteRef.utf8ToString();
-							final int termFreq = termsEnum.docFreq();
-							doc.setEntry(termText, termFreq);
-						}
-						docs[i] = doc;
+			final long start = System.currentTimeMillis();
+			final String[] revisions = getRevisions(reader);
+			final Set<String> live = Sets.newHashSet(revisions);
+			int deleted = 0;
+			for (final String key : graph.getKeys()) {
+				if (!live.contains(key)) {
+					graph.delete(key);
+					deleted++;
+				}
+			}
+			final boolean rebuild = graph.getNumDeleted() > maxDeleted * graph.size();
+			if (rebuild) {
+				// deleted nodes still cost search time, and the other vectors carry the idf of when they were added
+				graph.close();
+				graph = HnswIndex.create(file, dimensions, m, efConstruction);
+				vectorGraphs.put(file, graph);
+			}
+			final RandomProjection projection = new RandomProjection(dimensions);
+			int added = 0;
+			for (int doc = 0; doc < revisions.length; doc++) {
+				if (revisions[doc] != null && graph.getNode(revisions[doc]) < 0) {
+					final float[] vector = getProjectedVector(reader, field, doc, projection);
+					if (vector != null) {
+						graph.add(revisions[doc], vector);
+						added++;
 					}
 				}
 			}
+			graph.commit(version);
+			System.out.println(">>>Vector index: field=" + field + ";added=" + added + ";deleted=" + deleted + ";rebuilt=" + rebuild + ";size="
+			                   + graph.size() + ";in " + (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/**
+	 * Get the HNSW graph of a field in the directory of a reader, opened read-only, and the document of every node in
+	 * that reader. A graph behind the reader is searched as it is: its tickets that are gone have no document and new
+	 * tickets are not found until the next {@link #updateVectorIndex(String)}.
+	 * 
+	 * @return null if there is no committed graph, e.g. while another process changes it
+	 */
+	private static VectorIndex getVectorIndex(final IndexReader reader, final String field) throws IOException {
+
+		final int dimensions = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.projection.dimensions"), 256);
+		final int m = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.hnsw.m"), 16);
+		final long version = ((DirectoryReader) reader).getVersion();
+		final File file = getVectorIndexFile(reader, field);
+		synchronized (vectorIndexes) {
+			final VectorIndex cached = vectorIndexes.get(file);
+			if (cached != null && cached.version == version && cached.graph.getDimensions() == dimensions && cached.graph.isCurrent()) {
+				return cached;
+			}
+
+			// searches still running on a closed graph keep its mapping
+			for (final File other : Lists.newArrayList(vectorIndexes.keySet())) {
+				if (isReplacedBy(other, file)) {
+					vectorIndexes.remove(other).graph.close();
+				}
+			}
+			final HnswIndex graph = HnswIndex.openReadOnly(file, dimensions, m);
+			if (graph == null) {
+				System.out.println(">>>Vector index of " + field + " is not available, it is built when the bug file is indexed");
+				return null;
+			}
+			if (graph.getIndexVersion() != version) {
+				System.out.println(">>>Vector index of " + field + " is behind the index, new tickets are not found until it is updated");
+			}
+
+			final String[] revisions = getRevisions(reader);
+			final int[] docs = new int[graph.size() + graph.getNumDeleted()];
+			Arrays.fill(docs, -1);
+			for (int doc = 0; doc < revisions.length; doc++) {
+				final int node = revisions[doc] != null ? graph.getNode(revisions[doc]) : -1;
+				if (node >= 0) {
+					docs[node] = doc;
+				}
+			}
+			final VectorIndex index = new VectorIndex(graph, version, docs);
+			vectorIndexes.put(file, index);
+			return index;
+		}
+	}
+
+	private static File getVectorIndexFile(final IndexReader reader, final String field) throws IOException {
+
+		final Directory directory = ((DirectoryReader) reader).directory();
+		return new File(directory instanceof FSDirectory ? ((FSDirectory) directory).getDirectory() : IndexManager.getIndexDirectory(),
+		                "hnsw_" + field + ".index");
+	}
+
+	/**
+	 * A graph file is not used any more once a graph of the same field, or of another generation, is opened.
+	 */
+	private static boolean isReplacedBy(final File file, final File next) {
+
+		return file.equals(next) || !file.getParentFile().equals(next.getParentFile());
+	}
+
+	/**
+	 * @return the live revision of every document, null for deleted ones
+	 */
+	private static String[] getRevisions(final IndexReader reader) throws IOException {
+
+		final String[] revisions = new String[reader.maxDoc()];
+		final Terms terms = MultiFields.getTerms(reader, SearchEngineUtils.REVISION_FIELD);
+		if (terms != null) {
+			final TermsEnum termsEnum = terms.iterator(null);
+			DocsEnum docsEnum = null;
+			BytesRef bytesRef = null;
+			while ((bytesRef = termsEnum.next()) != null) {
+				docsEnum = termsEnum.docs(MultiFields.getLiveDocs(reader), docsEnum, DocsEnum.FLAG_NONE);
+				final int doc = docsEnum.nextDoc();
+				if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+					revisions[doc] = bytesRef.utf8ToString();
+				}
+			}
+		}
+		return revisions;
+	}
+
+	/**
+	 * Get the k documents nearest to a ticket in the projected TF-IDF space, an approximation of their cosine
+	 * similarity, from the HNSW graph of the field. The ticket itself is excluded.
+	 * 
+	 * @param field
+	 * @param ticketId
+	 * @param k
+	 * @return null if the ticket is not indexed or the graph is not available
+	 */
+	public TopDocs getNearestDocuments(final String field, final String ticketId, final int k) {
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final VectorIndex index = getVectorIndex(searcher.getIndexReader(), field);
+			if (index == null) {
+				return null;
+			}
+			final TopDocs hit = searcher.search(new TermQuery(new Term(SearchEngineUtils.KEY_FIELD, ticketId)), 1);
+			if (hit.totalHits == 0) {
+				System.out.println(">>>Ticket " + ticketId + " is not indexed");
+				return null;
+			}
+			final int doc = hit.scoreDocs[0].doc;
+			final float[] query = getProjectedVector(searcher.getIndexReader(), field, doc, new RandomProjection(index.graph.getDimensions()));
+			if (query == null) {
+				System.out.println(">>>Ticket " + ticketId + " has no term vector for " + field);
+				return null;
+			}
+			return searchVectorIndex(index, query, k, doc);
 		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-
-		return docs;
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
 	}
 
 	/**
-	 * Pairwise document similarity
+	 * Get the k documents nearest to a text that is not indexed, e.g. the subject of a ticket being written, from the
+	 * HNSW graph of the field. The text is analyzed like the field and weighted with the idf of the index.
 	 * 
 	 * @param field
-	 * @param maxDoc
-	 *            : the number of docs to analyze
+	 * @param text
+	 * @param k
+	 * @return null if the index cannot be read or the graph is not available
 	 */
-	public void getDocumentSimilarityBasedOnTermVector(final String field, final int maxDoc) {
+	public TopDocs findNearestDocuments(final String field, final String text, final int k) {
 
-		final DocVector[] docs = this.getTermVector(field, maxDoc);
-		final double[][] similarities = new double[maxDoc][maxDoc];
-		for (int i = 0; i < maxDoc; i++) {
-			similarities[i] = new double[maxDoc];
-			final DocVector doc1 = docs[i];
-			for (int j = i + 1; j < maxDoc; j++) {
-				final DocVector doc2 = docs[j];
-				final double cosim = getCosineSimilarity(doc1, doc2);
-				similarities[i][j] = cosim;
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final VectorIndex index = getVectorIndex(searcher.getIndexReader(), field);
+			if (index == null) {
+				return null;
 			}
+			final Map<String, Integer> freqs = Maps.newHashMap();
+			for (final String token : SearchEngineUtils.parseText(ANALYZER, text)) {
+				if (!token.equals("")) {
+					freqs.put(token, freqs.containsKey(token) ? freqs.get(token) + 1 : 1);
+				}
+			}
+			final float[] query = getProjectedVector(searcher.getIndexReader(), field, freqs, new RandomProjection(index.graph.getDimensions()));
+			if (query == null) {
+				return new TopDocs(0, new ScoreDoc[0], Float.NaN);
+			}
+			return searchVectorIndex(index, query, k, -1);
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
+		finally {
+			IndexManager.release(searcher);
+		}
+		return null;
+	}
 
-		final String[] labels = new String[maxDoc];
-		for (int i = 0; i < maxDoc; i++) {
-			labels[i] = i + "";
+	/**
+	 * Search the graph with the configured ef ("bug.analysis.hnsw.ef") and map its nodes to documents.
+	 */
+	private static TopDocs searchVectorIndex(final VectorIndex index, final float[] query, final int k, final int exclude) {
+
+		final int ef = NumberUtils.toInt(Config.getInstance().getProperty("bug.analysis.hnsw.ef"), 20);
+		final TopDocs nodes = index.graph.search(query, k + 1, Math.max(ef, k + 1));
+		final List<ScoreDoc> hits = Lists.newArrayList();
+		for (final ScoreDoc node : nodes.scoreDocs) {
+			final int doc = index.docs[node.doc];
+			if (doc >= 0 && doc != exclude && hits.size() < k) {
+				hits.add(new ScoreDoc(doc, node.score));
+			}
 		}
+		return new TopDocs(hits.size(), hits.toArray(new ScoreDoc[hits.size()]), hits.isEmpty() ? Float.NaN : hits.get(0).score);
+	}
 
-		final String result = SearchEngineUtils.printConfusionMatrix(labels, similarities);
-		final boolean overwrite = true;
-		final String filePath = "./resource/DocSimilarity.txt";
-		DataUtils.saveToFile(result, filePath, overwrite);
+	/**
+	 * Project the term vector of a document with TF-IDF weights, as {@link TfIdfModel} computes them.
+	 * 
+	 * @return null if the document has no terms in the field
+	 */
+	private static float[] getProjectedVector(final IndexReader reader, final String field, final int doc, final RandomProjection projection)
+	        throws IOException {
+
+		final Terms vector = reader.getTermVector(doc, field);
+		if (vector == null) {
+			return null;
+		}
+		final Map<String, Integer> freqs = Maps.newHashMap();
+		final TermsEnum termsEnum = vector.iterator(null);
+		BytesRef bytesRef = null;
+		while ((bytesRef = termsEnum.next()) != null) {
+			freqs.put(bytesRef.utf8ToString(), (int) termsEnum.totalTermFreq());
+		}
+		return getProjectedVector(reader, field, freqs, projection);
 	}
 
 	/**
-	 * Get document similarity based on term vector
+	 * Project term frequencies with TF-IDF weights; terms that are not indexed are left out.
+	 * 
+	 * @return null if no term is indexed
+	 */
+	private static float[] getProjectedVector(final IndexReader reader, final String field, final Map<String, Integer> freqs,
+	        final RandomProjection projection) throws IOException {
+
+		final DefaultSimilarity similarity = new DefaultSimilarity();
+		final List<String> terms = Lists.newArrayList();
+		final float[] weights = new float[freqs.size()];
+		for (final Map.Entry<String, Integer> entry : freqs.entrySet()) {
+			final int docFreq = reader.docFreq(new Term(field, entry.getKey()));
+			if (docFreq > 0) {
+				weights[terms.size()] = similarity.tf(entry.getValue()) * similarity.idf(docFreq, reader.numDocs());
+				terms.add(entry.getKey());
+			}
+		}
+		if (terms.isEmpty()) {
+			return null;
+		}
+		return projection.project(terms.toArray(new String[terms.size()]), Arrays.copyOf(weights, terms.size()));
+	}
+
+	/**
+	 * Get document similarity based on term vector: cosine similarity of every pair of the given documents, by term
+	 * frequency.
 	 * 
 	 * @param field
 	 * @param docIds
 	 */
 	public void getDocumentSimilarityBasedOnTermVector(final String field, final int[] docIds) {
 
-		final DocVector[] docs = new DocVector[docIds.length];
-		final double cosim01 = getCosineSimilarity(docs[docIds[0]], docs[docIds[1]]);
-		System.out.println("Cosine Similarity between document = " + cosim01);
+		IndexSearcher searcher = null;
+		try {
+			searcher = IndexManager.acquire();
+			final IndexReader reader = searcher.getIndexReader();
+			final List<Map<String, Long>> vectors = Lists.newArrayList();
+			for (final int docId : docIds) {
+				final Map<String, Long> vector = Maps.newHashMap();
+				final Terms terms = reader.getTermVector(docId, field);
+				if (terms != null) {
+					final TermsEnum termsEnum = terms.iterator(null);
+					BytesRef bytesRef = null;
+					while ((bytesRef = termsEnum.next()) != null) {
+						vector.put(bytesRef.utf8ToString(), termsEnum.totalTermFreq());
+					}
+				}
+				vectors.add(vector);
+			}
+
+			for (int i = 0; i < docIds.length; i++) {
+				for (int j = i + 1; j < docIds.length; j++) {
+					final double cosim = getCosineSimilarity(vectors.get(i), vectors.get(j));
+					System.out.println("Cosine Similarity between document " + docIds[i] + " and " + docIds[j] + " = " + cosim);
+				}
+			}
+		}
+		catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+	}
+
+	private static double getCosineSimilarity(final Map<String, Long> v1, final Map<String, Long> v2) {
+
+		double dot = 0;
+		double norm1 = 0;
+		double norm2 = 0;
+		for (final Map.Entry<String, Long> entry : v1.entrySet()) {
+			final Long freq2 = v2.get(entry.getKey());
+			if (freq2 != null) {
+				dot += (double) entry.getValue() * freq2;
+			}
+			norm1 += (double) entry.getValue() * entry.getValue();
+		}
+		for (final Long freq : v2.values()) {
+			norm2 += (double) freq * freq;
+		}
+		return dot / (Math.sqrt(norm1) * Math.sqrt(norm2));
+	}
+
+	/**
+	 * An HNSW graph and the document of each of its nodes in one version of the index, -1 for deleted nodes.
+	 *
+	 */
+	private static class VectorIndex {
+
+		private final HnswIndex graph;
+
+		private final long version;
+
+		private final int[] docs;
+
+		VectorIndex(final HnswIndex graph, final long version, final int[] docs) {
+
+			this.graph = graph;
+			this.version = version;
+			this.docs = docs;
+		}
 	}
 }
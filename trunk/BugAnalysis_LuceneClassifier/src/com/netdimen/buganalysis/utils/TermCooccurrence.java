@@ -0,0 +1,165 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.BitUtil;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Term co-occurrence counts: the number of documents containing both terms, for every pair of a list of terms. The
+ * documents of each term are read once from its postings into a word-aligned bitset, so the count of a pair is the
+ * popcount of the AND of two long[] arrays; no term vector is loaded and nothing is looked up per document.
+ *
+ * The T x T triangle costs T * (T + 1) / 2 intersections of maxDoc / 64 words each. Rows are cut into blocks of
+ * {@link #BLOCK_SIZE} that are counted on a {@link ForkJoinPool}; within a block, each column bitset is intersected with
+ * all rows of the block while it is still in cache.
+ */
+public class TermCooccurrence {
+
+	/** rows per task */
+	private static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Count the documents shared by every pair of terms. Entry (i, i) is the document frequency of term i, entry (i, j)
+	 * for j > i the number of documents containing both; the lower triangle is left 0. Deleted documents are not
+	 * counted, terms missing from the field count 0.
+	 *
+	 * @param reader
+	 * @param field
+	 * @param terms
+	 *            : terms in indexed (analyzed) form
+	 * @param parallelism
+	 *            : threads; 1 counts on the calling thread
+	 * @return
+	 * @throws IOException
+	 */
+	public static int[][] count(final IndexReader reader, final String field, final List<String> terms, final int parallelism)
+	        throws IOException {
+
+		// 1. One bitset per term
+		final int numTerms = terms.size();
+		final CoverageUtils.PostingsReader postings = new CoverageUtils.PostingsReader(reader, field);
+		final long[][] bits = new long[numTerms][];
+		for (int i = 0; i < numTerms; i++) {
+			final FixedBitSet docs = new FixedBitSet(postings.maxDoc());
+			postings.read(terms.get(i), docs);
+			bits[i] = docs.getBits();
+		}
+
+		// 2. Intersect
+		return intersect(bits, parallelism);
+	}
+
+	/**
+	 * Count the rows shared by every pair of the given columns of a matrix, e.g. hash buckets of a
+	 * {@link HashingVectorizer}, in the same layout as {@link #count(IndexReader, String, List, int)}.
+	 *
+	 * @param matrix
+	 * @param columns
+	 *            : distinct column ids
+	 * @param parallelism
+	 *            : threads; 1 counts on the calling thread
+	 * @return
+	 */
+	public static int[][] count(final DocTermMatrix matrix, final int[] columns, final int parallelism) {
+
+		// 1. One bitset per column, filled in one pass over the rows
+		final int[] positions = new int[matrix.getNumTerms()];
+		Arrays.fill(positions, -1);
+		final FixedBitSet[] docs = new FixedBitSet[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			positions[columns[i]] = i;
+			docs[i] = new FixedBitSet(matrix.getNumRows());
+		}
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			for (int k = matrix.getRowStart(row); k < matrix.getRowEnd(row); k++) {
+				final int position = positions[matrix.getColumn(k)];
+				if (position >= 0) {
+					docs[position].set(row);
+				}
+			}
+		}
+		final long[][] bits = new long[columns.length][];
+		for (int i = 0; i < columns.length; i++) {
+			bits[i] = docs[i].getBits();
+		}
+
+		// 2. Intersect
+		return intersect(bits, parallelism);
+	}
+
+	private static int[][] intersect(final long[][] bits, final int parallelism) {
+
+		final int numTerms = bits.length;
+		final int[][] counts = new int[numTerms][numTerms];
+		final RowBlockTask task = new RowBlockTask(bits, counts, 0, numTerms);
+		if (parallelism <= 1) {
+			task.countRows(0, numTerms);
+			return counts;
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(task);
+		}
+		finally {
+			pool.shutdown();
+		}
+		return counts;
+	}
+
+	/**
+	 * Counts the rows from (inclusive) until to (exclusive), splitting down to {@link TermCooccurrence#BLOCK_SIZE}
+	 * rows.
+	 *
+	 */
+	private static class RowBlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[][] bits;
+
+		private final int[][] counts;
+
+		private final int from;
+
+		private final int to;
+
+		RowBlockTask(final long[][] bits, final int[][] counts, final int from, final int to) {
+
+			this.bits = bits;
+			this.counts = counts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > BLOCK_SIZE) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new RowBlockTask(bits, counts, from, mid), new RowBlockTask(bits, counts, mid, to));
+				return;
+			}
+			countRows(from, to);
+		}
+
+		void countRows(final int rowStart, final int rowEnd) {
+
+			for (int blockStart = rowStart; blockStart < rowEnd; blockStart += BLOCK_SIZE) {
+				final int blockEnd = Math.min(blockStart + BLOCK_SIZE, rowEnd);
+				for (int j = blockStart; j < bits.length; j++) {
+					final long[] column = bits[j];
+					for (int i = blockStart; i < blockEnd && i <= j; i++) {
+						counts[i][j] = (int) BitUtil.pop_intersect(bits[i], column, 0, column.length);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.TFIDFSimilarity;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+import com.google.common.collect.Lists;
+
+/**
+ * TF-IDF model of one field with Lucene's {@link DefaultSimilarity}: weight(t, d) = tf(freq(t, d)) * idf(df(t)). Term
+ * ids are the positions of the terms in the field's dictionary; document frequencies and idfs are arrays indexed by
+ * term id, and the weighted document vectors are the rows of a {@link DocTermMatrix}.
+ *
+ * Building takes one pass over the field's terms for df and idf, and one pass over the term vectors for the rows;
+ * nothing is looked up per (document, term) in the postings.
+ */
+public final class TfIdfModel {
+
+	private static final TFIDFSimilarity similarity = new DefaultSimilarity();
+
+	private final BytesRefHash vocabulary;
+
+	private final int[] docFreqs;
+
+	private final float[] idfs;
+
+	private final DocTermMatrix weights;
+
+	private TfIdfModel(final BytesRefHash vocabulary, final int[] docFreqs, final float[] idfs, final DocTermMatrix weights) {
+
+		this.vocabulary = vocabulary;
+		this.docFreqs = docFreqs;
+		this.idfs = idfs;
+		this.weights = weights;
+	}
+
+	/**
+	 * Build the model of all live documents; deleted documents and documents without a term vector get empty rows.
+	 *
+	 * @param reader
+	 * @param field
+	 *            : a field with term vectors
+	 * @return
+	 * @throws IOException
+	 */
+	public static TfIdfModel build(final IndexReader reader, final String field) throws IOException {
+
+		// 1. Dictionary pass: df and idf per term id
+		final BytesRefHash vocabulary = new BytesRefHash();
+		final List<String> labels = Lists.newArrayList();
+		int[] docFreqs = new int[16];
+		final Terms fieldTerms = MultiFields.getTerms(reader, field);
+		if (fieldTerms != null) {
+			final TermsEnum termsEnum = fieldTerms.iterator(null);
+			BytesRef bytesRef = null;
+			while ((bytesRef = termsEnum.next()) != null) {
+				final int id = vocabulary.add(bytesRef);
+				docFreqs = ArrayUtil.grow(docFreqs, id + 1);
+				docFreqs[id] = termsEnum.docFreq();
+				labels.add(bytesRef.utf8ToString());
+			}
+		}
+		final int numTerms = labels.size();
+		docFreqs = Arrays.copyOf(docFreqs, numTerms);
+		final float[] idfs = new float[numTerms];
+		for (int id = 0; id < numTerms; id++) {
+			idfs[id] = similarity.idf(docFreqs[id], reader.numDocs());
+		}
+
+		// 2. Term vector pass: weighted rows, columns ascending as term vectors are sorted
+		final int numRows = reader.maxDoc();
+		final int[] rowPtr = new int[numRows + 1];
+		int[] columns = new int[16];
+		float[] values = new float[16];
+		int size = 0;
+		final Bits liveDocs = MultiFields.getLiveDocs(reader);
+		for (int doc = 0; doc < numRows; doc++) {
+			final Terms vector = liveDocs == null || liveDocs.get(doc) ? reader.getTermVector(doc, field) : null;
+			if (vector != null) {
+				final TermsEnum termsEnum = vector.iterator(null);
+				BytesRef bytesRef = null;
+				while ((bytesRef = termsEnum.next()) != null) {
+					final int id = vocabulary.find(bytesRef);
+					if (id < 0) {
+						continue;
+					}
+					if (size == columns.length) {
+						columns = ArrayUtil.grow(columns, size + 1);
+						values = ArrayUtil.grow(values, size + 1);
+					}
+					columns[size] = id;
+					values[size] = similarity.tf(termsEnum.totalTermFreq()) * idfs[id];
+					size++;
+				}
+			}
+			rowPtr[doc + 1] = size;
+		}
+
+		final DocTermMatrix weights = new DocTermMatrix(labels.toArray(new String[numTerms]), rowPtr, Arrays.copyOf(columns, size),
+		                                                Arrays.copyOf(values, size));
+		return new TfIdfModel(vocabulary, docFreqs, idfs, weights);
+	}
+
+	public int getNumTerms() {
+
+		return docFreqs.length;
+	}
+
+	/**
+	 * @param term
+	 * @return the term id, -1 if the term is not in the field
+	 */
+	public int getTermId(final String term) {
+
+		return vocabulary.find(new BytesRef(term));
+	}
+
+	public String getTerm(final int id) {
+
+		return weights.getTerm(id);
+	}
+
+	public int getDocFreq(final int id) {
+
+		return docFreqs[id];
+	}
+
+	public float getIdf(final int id) {
+
+		return idfs[id];
+	}
+
+	/**
+	 * Weighted document vectors: row = doc id, column = term id, value = tf-idf weight.
+	 *
+	 * @return
+	 */
+	public DocTermMatrix getWeights() {
+
+		return weights;
+	}
+
+	/**
+	 * @param doc
+	 * @param id
+	 *            : term id
+	 * @return the tf-idf weight, 0 if the document does not contain the term
+	 */
+	public float getWeight(final int doc, final int id) {
+
+		return weights.get(doc, id);
+	}
+}
@@ -0,0 +1,169 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Keep the K terms with the highest document frequency while streaming a term dictionary. The candidates live in a
+ * fixed-size min-heap of primitive arrays whose term slots are reused, so nothing is allocated per term and only the
+ * winners are decoded to strings.
+ *
+ * Ties are broken by dictionary order, the earlier term wins. This is the order a stable sort by descending frequency
+ * gives, so the result is the head of {@link SearchEngineUtils#getAllTermsAndSort(String)}.
+ */
+final class TopTermsCollector {
+
+	private final int k;
+
+	private final int[] freqs;
+
+	/** position in the dictionary, for tie-breaking */
+	private final long[] ords;
+
+	private final BytesRef[] terms;
+
+	private int size = 0;
+
+	private long ord = 0;
+
+	TopTermsCollector(final int k) {
+
+		this.k = Math.max(0, k);
+		freqs = new int[this.k];
+		ords = new long[this.k];
+		terms = new BytesRef[this.k];
+		for (int i = 0; i < this.k; i++) {
+			terms[i] = new BytesRef();
+		}
+	}
+
+	/**
+	 * Collect the top K terms of a field.
+	 *
+	 * @param terms
+	 *            : may be null if the field does not exist
+	 * @param k
+	 * @return terms sorted by document frequency descending, with their frequencies
+	 * @throws IOException
+	 */
+	static TermFrequencyObject collect(final Terms terms, final int k) throws IOException {
+
+		final TopTermsCollector collector = new TopTermsCollector(k);
+		if (terms != null) {
+			final TermsEnum termEnum = terms.iterator(null);
+			BytesRef bytesRef = null;
+			while ((bytesRef = termEnum.next()) != null) {
+				collector.collect(bytesRef, termEnum.docFreq());
+			}
+		}
+		return collector.toTermFrequencyObject();
+	}
+
+	/**
+	 * Offer the next term in dictionary order. The bytes are copied if the term enters the heap, so the caller may
+	 * reuse them.
+	 *
+	 * @param term
+	 * @param docFreq
+	 */
+	void collect(final BytesRef term, final int docFreq) {
+
+		if (size < k) {
+			set(size, term, docFreq);
+			upHeap(size++);
+		} else if (k > 0 && docFreq > freqs[0]) {
+			// a later term with the same frequency loses the tie
+			set(0, term, docFreq);
+			downHeap(0);
+		}
+		ord++;
+	}
+
+	/**
+	 * Drain the heap. The collector is empty afterwards.
+	 *
+	 * @return
+	 */
+	TermFrequencyObject toTermFrequencyObject() {
+
+		final String[] sorted = new String[size];
+		final Map<String, Integer> termFreqMap = Maps.newHashMapWithExpectedSize(size);
+		while (size > 0) {
+			final String term = terms[0].utf8ToString();
+			sorted[size - 1] = term;
+			termFreqMap.put(term, freqs[0]);
+			swap(0, --size);
+			downHeap(0);
+		}
+
+		final List<String> termList = Lists.newArrayList(sorted);
+		return new TermFrequencyObject(termList, termFreqMap);
+	}
+
+	private void set(final int i, final BytesRef term, final int docFreq) {
+
+		terms[i].copyBytes(term);
+		freqs[i] = docFreq;
+		ords[i] = ord;
+	}
+
+	/**
+	 * @return true if slot i ranks below slot j
+	 */
+	private boolean lessThan(final int i, final int j) {
+
+		return freqs[i] < freqs[j] || (freqs[i] == freqs[j] && ords[i] > ords[j]);
+	}
+
+	private void upHeap(int i) {
+
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (!lessThan(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void downHeap(int i) {
+
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			final int right = left + 1;
+			final int child = (right < size && lessThan(right, left)) ? right : left;
+			if (!lessThan(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(final int i, final int j) {
+
+		final int freq = freqs[i];
+		freqs[i] = freqs[j];
+		freqs[j] = freq;
+
+		final long o = ords[i];
+		ords[i] = ords[j];
+		ords[j] = o;
+
+		final BytesRef term = terms[i];
+		terms[i] = terms[j];
+		terms[j] = term;
+	}
+}
@@ -0,0 +1,126 @@
+package com.netdimen.buganalysis.utils;
+
+import com.netdimen.buganalysis.config.Config;
+
+/**
+ * Dot product, norm and batched matrix-vector kernels for dense float vectors such as {@link DenseVectors}.
+ *
+ * Two implementations are selected at runtime with bug.analysis.kernels:
+ * <ul>
+ * <li>"scalar": one running sum, the reference;</li>
+ * <li>"unrolled" (default): eight independent partial sums. A single sum makes every addition wait for the previous
+ * one; independent sums let the CPU pipeline the multiply-adds, and the JIT can map them to SIMD registers.</li>
+ * </ul>
+ * The two differ only in the order floats are added, so results agree to rounding.
+ */
+public abstract class VectorKernels {
+
+	private static final VectorKernels INSTANCE = select(Config.getInstance().getProperty("bug.analysis.kernels"));
+
+	/**
+	 * The kernels chosen by the configuration.
+	 *
+	 * @return
+	 */
+	public static VectorKernels get() {
+
+		return INSTANCE;
+	}
+
+	/**
+	 * @param name
+	 *            : "scalar" or "unrolled"; anything else selects "unrolled"
+	 * @return
+	 */
+	public static VectorKernels select(final String name) {
+
+		return "scalar".equalsIgnoreCase(name) ? new Scalar() : new Unrolled();
+	}
+
+	public abstract String getName();
+
+	/**
+	 * Dot product of a[aOffset, aOffset + length) and b[bOffset, bOffset + length).
+	 */
+	public abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+	/**
+	 * L2 norm of v[offset, offset + length).
+	 */
+	public float norm(final float[] v, final int offset, final int length) {
+
+		return (float) Math.sqrt(dot(v, offset, v, offset, length));
+	}
+
+	/**
+	 * Dot products of the query with the rows fromRow until toRow of a row-major matrix, written to
+	 * scores[0, toRow - fromRow).
+	 *
+	 * @param matrix
+	 * @param dimensions
+	 *            : row length, also the query length
+	 * @param fromRow
+	 * @param toRow
+	 * @param query
+	 * @param scores
+	 */
+	public void dots(final float[] matrix, final int dimensions, final int fromRow, final int toRow, final float[] query,
+	        final float[] scores) {
+
+		for (int row = fromRow; row < toRow; row++) {
+			scores[row - fromRow] = dot(matrix, row * dimensions, query, 0, dimensions);
+		}
+	}
+
+	private static final class Scalar extends VectorKernels {
+
+		@Override
+		public String getName() {
+
+			return "scalar";
+		}
+
+		@Override
+		public float dot(final float[] a, final int aOffset, final float[] b, final int bOffset, final int length) {
+
+			float sum = 0;
+			for (int i = 0; i < length; i++) {
+				sum += a[aOffset + i] * b[bOffset + i];
+			}
+			return sum;
+		}
+	}
+
+	private static final class Unrolled extends VectorKernels {
+
+		@Override
+		public String getName() {
+
+			return "unrolled";
+		}
+
+		@Override
+		public float dot(final float[] a, final int aOffset, final float[] b, final int bOffset, final int length) {
+
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+			final int bound = length & ~7;
+			int i = 0;
+			for (; i < bound; i += 8) {
+				final int p = aOffset + i;
+				final int q = bOffset + i;
+				s0 += a[p] * b[q];
+				s1 += a[p + 1] * b[q + 1];
+				s2 += a[p + 2] * b[q + 2];
+				s3 += a[p + 3] * b[q + 3];
+				s4 += a[p + 4] * b[q + 4];
+				s5 += a[p + 5] * b[q + 5];
+				s6 += a[p + 6] * b[q + 6];
+				s7 += a[p + 7] * b[q + 7];
+			}
+			for (; i < length; i++) {
+				s0 += a[aOffset + i] * b[bOffset + i];
+			}
+			return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AllPairsSimilarityTest {
+
+	/**
+	 * Random sparse matrix, few terms so that many rows overlap.
+	 */
+	private static DocTermMatrix randomMatrix(final int numRows, final int numTerms, final long seed) {
+
+		final Random random = new Random(seed);
+		final int[] rowPtr = new int[numRows + 1];
+		final int[] columns = new int[numRows * numTerms];
+		final float[] values = new float[numRows * numTerms];
+		int size = 0;
+		for (int i = 0; i < numRows; i++) {
+			for (int t = 0; t < numTerms; t++) {
+				if (random.nextInt(4) == 0) {
+					columns[size] = t;
+					values[size] = 1 + random.nextInt(3);
+					size++;
+				}
+			}
+			rowPtr[i + 1] = size;
+		}
+
+		final String[] terms = new String[numTerms];
+		for (int t = 0; t < numTerms; t++) {
+			terms[t] = "t" + t;
+		}
+		return new DocTermMatrix(terms, rowPtr, Arrays.copyOf(columns, size), Arrays.copyOf(values, size));
+	}
+
+	@Test
+	public void shouldFindSamePairsAsBruteForce() {
+
+		final DocTermMatrix matrix = randomMatrix(300, 12, 42);
+		for (final double threshold : new double[] { 0.5, 0.8, 1.0 }) {
+			final List<AllPairsSimilarity.SimilarPair> pairs = AllPairsSimilarity.join(matrix, threshold);
+			int expected = 0;
+			int found = 0;
+			for (int j = 0; j < matrix.getNumRows(); j++) {
+				for (int i = 0; i < j; i++) {
+					final double similarity = matrix.cosine(i, j);
+					if (similarity >= threshold) {
+						final AllPairsSimilarity.SimilarPair pair = pairs.get(expected++);
+						assertEquals(i, pair.getRow1());
+						assertEquals(j, pair.getRow2());
+						assertEquals(similarity, pair.getSimilarity(), 1e-12);
+						found++;
+					}
+				}
+			}
+			assertEquals(found, pairs.size());
+			assertTrue(found > 0);
+		}
+	}
+}
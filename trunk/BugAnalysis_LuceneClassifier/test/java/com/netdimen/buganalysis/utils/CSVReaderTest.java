@@ -0,0 +1,76 @@
+/*
+ * 
+ * Copyright (c) 1999-2015 NetDimensions Ltd.
+ * 
+ * All rights reserved.
+ * 
+ * This software is the confidential and proprietary information of NetDimensions Ltd. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with NetDimensions.
+ */
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class CSVReaderTest {
+
+	private static ArrayList<ArrayList<String>> readAll(final String csv) throws IOException {
+
+		final ArrayList<ArrayList<String>> rows = Lists.newArrayList();
+		new CSVReader(new StringReader(csv)).readAll("test", new RowHandler() {
+
+			@Override
+			public void startSheet(final String sheetName) {
+
+			}
+
+			@Override
+			public void handleRow(final int rowIndex, final List<String> values) {
+
+				rows.add(Lists.newArrayList(values));
+			}
+
+			@Override
+			public void endSheet() {
+
+			}
+		});
+		return rows;
+	}
+
+	@Test
+	public void shouldReadQuotedCells() throws IOException {
+
+		final ArrayList<ArrayList<String>> rows = readAll("Ticket Id,Subject\r\n1,\"Login fails, then \"\"retry\"\" works\"\r\n");
+		assertTrue(rows.size() == 2);
+		assertTrue(rows.get(0).equals(Lists.newArrayList("Ticket Id", "Subject")));
+		assertTrue(rows.get(1).equals(Lists.newArrayList("1", "Login fails, then \"retry\" works")));
+	}
+
+	@Test
+	public void shouldReadMultiLineCells() throws IOException {
+
+		final ArrayList<ArrayList<String>> rows = readAll("1,\"first line\nsecond line\"\n2,plain");
+		assertTrue(rows.size() == 2);
+		assertTrue(rows.get(0).get(1).equals("first line\nsecond line"));
+		assertTrue(rows.get(1).equals(Lists.newArrayList("2", "plain")));
+	}
+
+	@Test
+	public void shouldKeepShortRowsAndSkipBlankLines() throws IOException {
+
+		final ArrayList<ArrayList<String>> rows = readAll("a,b,c\n\n1\n2,,\n");
+		assertTrue(rows.size() == 3);
+		assertTrue(rows.get(1).equals(Lists.newArrayList("1")));
+		assertTrue(rows.get(2).equals(Lists.newArrayList("2", "", "")));
+	}
+}
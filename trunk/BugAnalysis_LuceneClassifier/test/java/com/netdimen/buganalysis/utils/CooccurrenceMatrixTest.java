@@ -0,0 +1,55 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.junit.Test;
+
+public class CooccurrenceMatrixTest {
+
+	private static final String[] SUBJECTS = { "report wizard error", "report export error", "catalog editor error", "wizard export",
+	        "session enrollment email", "report email", "catalog report wizard" };
+
+	@Test
+	public void shouldMatchPostingsIntersectionWhenSpilling() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open(SUBJECTS);
+		final File file = File.createTempFile("cooccurrence", ".dat");
+		try {
+			// spill after every few pairs
+			final CooccurrenceMatrix built = CooccurrenceMatrix.build(reader, "Subject", file, 3);
+			final CooccurrenceMatrix matrix = CooccurrenceMatrix.open(file);
+			assertEquals(built.getNumEntries(), matrix.getNumEntries());
+			assertEquals(SUBJECTS.length, matrix.getNumDocs());
+
+			final int[] ids = new int[matrix.getNumTerms()];
+			final String[] terms = new String[ids.length];
+			for (int t = 0; t < ids.length; t++) {
+				ids[t] = t;
+				terms[t] = matrix.getTerm(t);
+			}
+			final List<String> termList = Arrays.asList(terms);
+			final int[][] expected = TermCooccurrence.count(reader, "Subject", termList, 1);
+			final int[][] counts = matrix.getCounts(ids);
+			for (int i = 0; i < ids.length; i++) {
+				for (int j = i; j < ids.length; j++) {
+					assertEquals(terms[i] + "/" + terms[j], expected[i][j], counts[i][j]);
+					assertEquals(counts[i][j], counts[j][i]);
+				}
+			}
+
+			final int report = termList.indexOf("report");
+			final int wizard = termList.indexOf("wizard");
+			assertEquals(2, counts[report][wizard]);
+			assertEquals(Math.log(7.0 * 2 / (4 * 3)), matrix.getPMI(new int[] { report, wizard })[0][1], 1e-9);
+		}
+		finally {
+			reader.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class CoverageUtilsTest {
+
+	private static final String[] WORDS = { "crash", "login", "report", "export", "timeout", "course", "session", "upload" };
+
+	/**
+	 * Random subjects, later words rarer than earlier ones.
+	 */
+	private static String[] randomSubjects(final int numDocs, final long seed) {
+
+		final Random random = new Random(seed);
+		final String[] subjects = new String[numDocs];
+		for (int i = 0; i < numDocs; i++) {
+			final StringBuilder subject = new StringBuilder("bug");
+			for (int w = 0; w < WORDS.length; w++) {
+				if (random.nextInt(w + 2) == 0) {
+					subject.append(' ').append(WORDS[w]);
+				}
+			}
+			subjects[i] = subject.toString();
+		}
+		return subjects;
+	}
+
+	/**
+	 * Live documents of each word, as the documents of their subjects.
+	 */
+	private static BitSet[] getDocs(final String[] subjects, final List<String> words, final int... deletedDocs) {
+
+		final BitSet[] docs = new BitSet[words.size()];
+		for (int w = 0; w < words.size(); w++) {
+			docs[w] = new BitSet();
+			for (int i = 0; i < subjects.length; i++) {
+				if (subjects[i].matches(".*\\b" + words.get(w) + "\\b.*")) {
+					docs[w].set(i);
+				}
+			}
+			for (final int doc : deletedDocs) {
+				docs[w].clear(doc);
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * Plain greedy: recompute the gain of every word each round, take the first with the largest.
+	 */
+	private static List<String> bruteForceCover(final List<String> words, final BitSet[] docs, final long target) {
+
+		final List<String> cover = Lists.newArrayList();
+		final BitSet covered = new BitSet();
+		while (covered.cardinality() < target) {
+			int best = -1;
+			int bestGain = 0;
+			for (int w = 0; w < words.size(); w++) {
+				final BitSet gain = (BitSet) docs[w].clone();
+				gain.andNot(covered);
+				if (gain.cardinality() > bestGain) {
+					best = w;
+					bestGain = gain.cardinality();
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			cover.add(words.get(best));
+			covered.or(docs[best]);
+		}
+		return cover;
+	}
+
+	/**
+	 * New coverage as it was computed before the bitsets: one search per term, hits not seen before are counted.
+	 */
+	private static int[] searchNewCoverage(final IndexReader reader, final List<String> terms) throws Exception {
+
+		final int[] newCoverage = new int[terms.size()];
+		final IndexSearcher searcher = new IndexSearcher(reader);
+		final BitSet coveredDocs = new BitSet();
+		for (int j = 0; j < terms.size(); j++) {
+			for (final ScoreDoc hit : searcher.search(new TermQuery(new Term(TestIndex.FIELD, terms.get(j))), reader.maxDoc()).scoreDocs) {
+				if (!coveredDocs.get(hit.doc)) {
+					newCoverage[j]++;
+					coveredDocs.set(hit.doc);
+				}
+			}
+		}
+		return newCoverage;
+	}
+
+	@Test
+	public void shouldCountNewCoverageLikeSearches() throws Exception {
+
+		final List<String> terms = Lists.newArrayList(WORDS);
+		terms.add(1, "missing");
+		terms.add("bug");
+		// two segments, each with deleted documents
+		final IndexReader reader = new MultiReader(TestIndex.open(TestIndex.TERM_VECTORS, randomSubjects(150, 1), 0, 7, 149),
+		                                           TestIndex.open(TestIndex.TERM_VECTORS, randomSubjects(90, 2), 10, 11));
+		try {
+			assertEquals(240, reader.maxDoc());
+			assertEquals(235, reader.numDocs());
+			final int[] newCoverage = CoverageUtils.getNewCoverage(reader, TestIndex.FIELD, terms);
+			assertArrayEquals(searchNewCoverage(reader, terms), newCoverage);
+			assertEquals(0, newCoverage[1]);
+
+			int coverage = 0;
+			for (final int count : newCoverage) {
+				coverage += count;
+			}
+			assertEquals(reader.numDocs(), coverage);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldPickSameTermsAsBruteForceGreedy() throws Exception {
+
+		final String[] subjects = randomSubjects(200, 42);
+		final int[] deletedDocs = { 3, 50, 51, 199 };
+		final List<String> words = Lists.newArrayList(WORDS);
+		words.add("missing");
+		final BitSet[] docs = getDocs(subjects, words, deletedDocs);
+		final DirectoryReader reader = TestIndex.open(TestIndex.TERM_VECTORS, subjects, deletedDocs);
+		try {
+			assertEquals(subjects.length - deletedDocs.length, reader.numDocs());
+			for (final double targetCoverage : new double[] { 0.3, 0.6, 0.8, 0.95, 1.0 }) {
+				final long target = (long) Math.ceil(targetCoverage * reader.numDocs());
+				assertEquals(bruteForceCover(words, docs, target), CoverageUtils.getGreedyCover(reader, TestIndex.FIELD, words, targetCoverage));
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldStopWhenTargetIsOutOfReach() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("login failed", "login timeout", "export crash", "course list");
+		try {
+			final List<String> cover = CoverageUtils.getGreedyCover(reader, TestIndex.FIELD, Lists.newArrayList("timeout", "login", "crash"), 1.0);
+			assertEquals(Lists.newArrayList("login", "crash"), cover);
+			assertTrue(CoverageUtils.getGreedyCover(reader, TestIndex.FIELD, Lists.newArrayList("missing"), 0.5).isEmpty());
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
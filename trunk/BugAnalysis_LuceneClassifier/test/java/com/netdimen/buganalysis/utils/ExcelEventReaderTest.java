@@ -0,0 +1,132 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netdimen.buganalysis.config.Config;
+
+public class ExcelEventReaderTest {
+
+	private final static String BUGREPORT_FILE = Config.getInstance().getProperty("bug.analysis.test.bug.file");
+
+	@Test
+	public void shouldReadRowsLikePOIUtils() throws Exception {
+
+		final List<List<String>> rows = readEvents(BUGREPORT_FILE);
+		assertTrue(rows.size() > 1);
+		assertEquals(readWorkbook(BUGREPORT_FILE), rows);
+	}
+
+	@Test
+	public void shouldReadCachedFormulaResults() throws Exception {
+
+		final File file = File.createTempFile("formulas", ".xls");
+		try {
+			final HSSFWorkbook wb = new HSSFWorkbook();
+			final HSSFSheet sheet = wb.createSheet("Details");
+			final HSSFRow header = sheet.createRow(0);
+			header.createCell(0).setCellValue("Ticket Id");
+			header.createCell(1).setCellValue("Count");
+			header.createCell(2).setCellValue("Subject");
+			header.createCell(3).setCellValue("Open");
+			header.createCell(4).setCellValue("Created");
+			final HSSFRow row = sheet.createRow(1);
+			row.createCell(0).setCellValue(6502);
+			row.createCell(1).setCellFormula("A2+1");
+			row.createCell(4).setCellFormula("DATE(2015,1,2)");
+			row.createCell(3).setCellFormula("B2>0");
+			// the string result is the last cell of the row
+			row.createCell(5).setCellFormula("CONCATENATE(\"Report \",\"error\")");
+			final HSSFCellStyle date = wb.createCellStyle();
+			date.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("m/d/yy"));
+			row.getCell(4).setCellStyle(date);
+			HSSFFormulaEvaluator.evaluateAllFormulaCells(wb);
+			final FileOutputStream out = new FileOutputStream(file);
+			try {
+				wb.write(out);
+			}
+			finally {
+				out.close();
+			}
+
+			final List<List<String>> rows = readEvents(file.getPath());
+			assertEquals(Lists.newArrayList("6502", "6503", "", "true", "01-02-2015", "Report error"), rows.get(1));
+			assertEquals(readWorkbook(file.getPath()), rows);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static List<List<String>> readEvents(final String fileName) throws IOException {
+
+		final List<List<String>> rows = Lists.newArrayList();
+		ExcelEventReader.read(fileName, new RowHandler() {
+
+			@Override
+			public void startSheet(final String sheetName) {
+
+			}
+
+			@Override
+			public void handleRow(final int rowIndex, final List<String> values) {
+
+				rows.add(Lists.newArrayList(values));
+			}
+
+			@Override
+			public void endSheet() {
+
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Non-empty rows of all sheets as {@link POIUtils#getCellValue(org.apache.poi.ss.usermodel.Workbook, Cell)} reads
+	 * them, up to their last value.
+	 */
+	private static List<List<String>> readWorkbook(final String fileName) throws IOException {
+
+		final List<List<String>> rows = Lists.newArrayList();
+		final FileInputStream in = new FileInputStream(fileName);
+		try {
+			final HSSFWorkbook wb = new HSSFWorkbook(in);
+			for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+				final Sheet sheet = wb.getSheetAt(i);
+				for (final Row row : sheet) {
+					final List<String> values = Lists.newArrayList();
+					for (int column = 0; column < row.getLastCellNum(); column++) {
+						values.add(POIUtils.getCellValue(wb, row.getCell(column)));
+					}
+					while (!values.isEmpty() && values.get(values.size() - 1).equals("")) {
+						values.remove(values.size() - 1);
+					}
+					if (!values.isEmpty()) {
+						rows.add(values);
+					}
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return rows;
+	}
+}
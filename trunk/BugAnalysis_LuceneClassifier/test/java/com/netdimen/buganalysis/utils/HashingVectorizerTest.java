@@ -0,0 +1,88 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+public class HashingVectorizerTest {
+
+	private static final List<String> SUBJECTS = Arrays.asList("Email reminder not sent", "Reminder email template is not HTML",
+	                                                           "Catalog search shows wrong price", "Search results of the catalog",
+	                                                           "Report error in the email report");
+
+	@Test
+	public void shouldVectorizeIndexedAndNewTextsAlike() throws Exception {
+
+		final String[] subjects = SUBJECTS.toArray(new String[SUBJECTS.size()]);
+		final DirectoryReader reader = TestIndex.open(TestIndex.TERM_VECTORS, subjects, 4);
+		final DirectoryReader stored = TestIndex.open(StoredField.TYPE, subjects, 4);
+		try {
+			final HashingVectorizer vectorizer = new HashingVectorizer(18);
+			final StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_46);
+			final DocTermMatrix texts = vectorizer.vectorize(SUBJECTS, analyzer);
+			// from the postings, and from the stored values of a field that is not indexed
+			final DocTermMatrix indexed = vectorizer.vectorize(reader, TestIndex.FIELD, reader.maxDoc(), analyzer);
+			final DocTermMatrix analyzed = vectorizer.vectorize(stored, TestIndex.FIELD, stored.maxDoc(), analyzer);
+			assertEquals(1 << 18, indexed.getNumTerms());
+			assertEquals(SUBJECTS.size(), indexed.getNumRows());
+			for (int row = 0; row < 4; row++) {
+				assertSameRow(texts, indexed, row);
+				assertSameRow(texts, analyzed, row);
+			}
+			assertEquals(0, indexed.getRowEnd(4) - indexed.getRowStart(4));
+			assertEquals(0, analyzed.getRowEnd(4) - analyzed.getRowStart(4));
+
+			// "report" twice in the last subject: one column, the term frequency with the sign of the term
+			final int column = vectorizer.getColumn("report");
+			assertEquals("#" + column, texts.getTerm(column));
+			assertEquals(2 * vectorizer.getSign("report"), texts.get(4, column), 0f);
+
+			// few terms in many columns do not collide, so cosines are those of the dictionary
+			final DocTermMatrix dictionary = DocTermMatrix.build(reader, TestIndex.FIELD, reader.maxDoc());
+			for (int i = 0; i < 4; i++) {
+				for (int j = 0; j < 4; j++) {
+					assertEquals(dictionary.cosine(i, j), indexed.cosine(i, j), 1e-6);
+				}
+			}
+
+			final int[] columns = { vectorizer.getColumn("email"), vectorizer.getColumn("catalog"), vectorizer.getColumn("search") };
+			final int[][] counts = TermCooccurrence.count(indexed, columns, 1);
+			assertArrayEquals(TermCooccurrence.count(reader, TestIndex.FIELD, Arrays.asList("email", "catalog", "search"), 1)[0], counts[0]);
+			assertEquals(2, counts[0][0]);
+			assertEquals(0, counts[0][1]);
+			assertEquals(2, counts[1][2]);
+		}
+		finally {
+			reader.close();
+			stored.close();
+		}
+	}
+
+	@Test
+	public void shouldRejectTooManyBits() {
+
+		try {
+			new HashingVectorizer(HashingVectorizer.MAX_BITS + 1);
+			fail("more than " + HashingVectorizer.MAX_BITS + " bits");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertSameRow(final DocTermMatrix expected, final DocTermMatrix actual, final int row) {
+
+		assertEquals(expected.getRowEnd(row) - expected.getRowStart(row), actual.getRowEnd(row) - actual.getRowStart(row));
+		for (int k = 0; k < expected.getRowEnd(row) - expected.getRowStart(row); k++) {
+			assertEquals(expected.getColumn(expected.getRowStart(row) + k), actual.getColumn(actual.getRowStart(row) + k));
+			assertEquals(expected.getValue(expected.getRowStart(row) + k), actual.getValue(actual.getRowStart(row) + k), 0f);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.search.TopDocs;
+import org.junit.Test;
+
+public class HnswIndexTest {
+
+	private static final int DIMENSIONS = 32;
+
+	@Test
+	public void shouldFindNearestVectors() throws Exception {
+
+		// 2000 vectors around 50 topics
+		final Random random = new Random(42);
+		final float[][] topics = new float[50][DIMENSIONS];
+		for (final float[] topic : topics) {
+			for (int d = 0; d < DIMENSIONS; d++) {
+				topic[d] = (float) random.nextGaussian();
+			}
+		}
+		final float[][] vectors = new float[2000][];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = noisy(topics[random.nextInt(topics.length)], 0.5f, random);
+		}
+
+		final File file = File.createTempFile("hnsw", ".index");
+		try {
+			HnswIndex index = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			for (int i = 0; i < vectors.length; i++) {
+				index.add("doc" + i, vectors[i]);
+			}
+			assertTrue(index.delete("doc0"));
+			assertFalse(index.delete("doc0"));
+			index.commit(7);
+			index.close();
+
+			index = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			assertEquals(7, index.getIndexVersion());
+			assertEquals(vectors.length - 1, index.size());
+			assertEquals(-1, index.getNode("doc0"));
+
+			double recall = 0;
+			final int queries = 100;
+			for (int q = 0; q < queries; q++) {
+				final float[] query = noisy(vectors[random.nextInt(vectors.length)], 0.2f, random);
+				final float[] scores = new float[vectors.length - 1];
+				for (int i = 1; i < vectors.length; i++) {
+					scores[i - 1] = dot(vectors[i], query);
+				}
+				Arrays.sort(scores);
+				// scores are summed in another order than the index sums them
+				final float threshold = scores[scores.length - 10] - 1e-5f;
+
+				final TopDocs hits = index.search(query, 10, 50);
+				assertEquals(10, hits.scoreDocs.length);
+				for (int h = 0; h < hits.scoreDocs.length; h++) {
+					final String key = index.getKey(hits.scoreDocs[h].doc);
+					assertFalse(key.equals("doc0"));
+					assertEquals(dot(vectors[Integer.parseInt(key.substring(3))], query), hits.scoreDocs[h].score, 1e-5f);
+					if (h > 0) {
+						assertTrue(hits.scoreDocs[h].score <= hits.scoreDocs[h - 1].score);
+					}
+					recall += hits.scoreDocs[h].score >= threshold ? 0.1 : 0;
+				}
+			}
+			assertTrue("recall " + recall / queries, recall / queries > 0.95);
+			index.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void shouldReplaceTheVectorOfAKey() throws Exception {
+
+		final float[] x = new float[DIMENSIONS];
+		final float[] y = new float[DIMENSIONS];
+		x[0] = 1;
+		y[1] = 1;
+		final File file = File.createTempFile("hnsw", ".index");
+		try {
+			final HnswIndex index = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			final int first = index.add("ticket", x);
+			final int second = index.add("ticket", y);
+			assertEquals(second, index.getNode("ticket"));
+			assertEquals(1, index.size());
+			assertEquals(1, index.getNumDeleted());
+
+			final TopDocs hits = index.search(x, 10, 10);
+			assertEquals(1, hits.scoreDocs.length);
+			assertEquals(second, hits.scoreDocs[0].doc);
+			assertTrue(first != second);
+			index.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void shouldDiscardUncommittedChanges() throws Exception {
+
+		final float[] x = new float[DIMENSIONS];
+		x[0] = 1;
+		final File file = File.createTempFile("hnsw", ".index");
+		try {
+			HnswIndex index = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			index.add("committed", x);
+			index.commit(1);
+			index.add("uncommitted", x);
+			index.close();
+
+			index = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			assertEquals(-1, index.getIndexVersion());
+			assertEquals(0, index.size());
+			index.add("committed", x);
+			index.commit(2);
+			index.close();
+
+			// other parameters start over as well
+			index = HnswIndex.open(file, DIMENSIONS * 2, 8, 100);
+			assertEquals(-1, index.getIndexVersion());
+			index.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void shouldOnlySearchCommittedGraphsReadOnly() throws Exception {
+
+		final float[] x = new float[DIMENSIONS];
+		x[0] = 1;
+		final float[] y = new float[DIMENSIONS];
+		y[1] = 1;
+		final File file = File.createTempFile("hnsw", ".index");
+		try {
+			final HnswIndex writer = HnswIndex.open(file, DIMENSIONS, 8, 100);
+			writer.add("x", x);
+			writer.commit(1);
+			final HnswIndex reader = HnswIndex.openReadOnly(file, DIMENSIONS, 8);
+			assertEquals(1, reader.size());
+			assertTrue(reader.isCurrent());
+			try {
+				reader.add("y", y);
+				fail("read-only");
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+
+			// while it changes, the file cannot be opened and the open graph is not current
+			writer.add("y", y);
+			assertFalse(reader.isCurrent());
+			assertNull(HnswIndex.openReadOnly(file, DIMENSIONS, 8));
+			writer.commit(2);
+			// links to the new node are not followed by the old mapping
+			assertEquals(1, reader.search(y, 2, 10).totalHits);
+			final HnswIndex current = HnswIndex.openReadOnly(file, DIMENSIONS, 8);
+			assertEquals(2, current.size());
+			assertEquals(2, current.getIndexVersion());
+			assertNull(HnswIndex.openReadOnly(file, DIMENSIONS * 2, 8));
+
+			// starting over writes a new file, the mapped one stays as it was committed
+			writer.close();
+			final HnswIndex rebuilt = HnswIndex.create(file, DIMENSIONS, 8, 100);
+			rebuilt.add("z", x);
+			rebuilt.commit(3);
+			assertTrue(current.isCurrent());
+			assertEquals(2, current.search(x, 2, 10).totalHits);
+			rebuilt.close();
+			reader.close();
+			current.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static float[] noisy(final float[] vector, final float noise, final Random random) {
+
+		final float[] result = new float[vector.length];
+		for (int d = 0; d < vector.length; d++) {
+			result[d] = vector[d] + noise * (float) random.nextGaussian();
+		}
+		DenseVectors.normalize(result, 0, result.length);
+		return result;
+	}
+
+	private static float dot(final float[] a, final float[] b) {
+
+		float sum = 0;
+		for (int d = 0; d < a.length; d++) {
+			sum += a[d] * b[d];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,50 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+public class IndexFingerprintTest {
+
+	@Test
+	public void shouldOnlyHashFileOfIndexedPathAndSize() throws Exception {
+
+		final File file = File.createTempFile("bugs", ".csv");
+		try {
+			Files.write("Ticket Id,Subject\n1,login error\n", file, StandardCharsets.UTF_8);
+			final Map<String, String> first = IndexFingerprint.compute(file.getPath(), Maps.<String, String> newHashMap());
+			assertNull(first.get(IndexFingerprint.SOURCE_SHA1));
+			assertEquals(String.valueOf(file.length()), first.get(IndexFingerprint.SOURCE_SIZE));
+			assertTrue(IndexFingerprint.matches(first, IndexFingerprint.compute(file.getPath(), first)));
+
+			// same path and size: hashed
+			final Map<String, String> second = IndexFingerprint.compute(file.getPath(), first);
+			assertNotNull(second.get(IndexFingerprint.SOURCE_SHA1));
+
+			// touched but unchanged
+			assertTrue(file.setLastModified(file.lastModified() - 60000));
+			assertFalse(IndexFingerprint.matches(first, IndexFingerprint.compute(file.getPath(), first)));
+			assertTrue(IndexFingerprint.matches(second, IndexFingerprint.compute(file.getPath(), second)));
+
+			// same size, other content
+			Files.write("Ticket Id,Subject\n2,login error\n", file, StandardCharsets.UTF_8);
+			assertFalse(IndexFingerprint.matches(second, IndexFingerprint.compute(file.getPath(), second)));
+
+			// other size: not hashed
+			Files.write("Ticket Id,Subject\n12,login error\n", file, StandardCharsets.UTF_8);
+			final Map<String, String> third = IndexFingerprint.compute(file.getPath(), second);
+			assertNull(third.get(IndexFingerprint.SOURCE_SHA1));
+			assertFalse(IndexFingerprint.matches(second, third));
+		}
+		finally {
+			file.delete();
+		}
+	}
+}
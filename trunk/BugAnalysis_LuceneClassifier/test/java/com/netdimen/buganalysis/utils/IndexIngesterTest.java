@@ -0,0 +1,114 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+public class IndexIngesterTest {
+
+	private static final List<String> FIELDS = Arrays.asList(SearchEngineUtils.ID_FIELD, "Subject");
+
+	@Test
+	public void shouldOnlyReindexChangedRows() throws Exception {
+
+		final Directory dir = TestIndex.newDirectory();
+		final IndexIngester full = ingest(dir, false, false, "1", "Email reminder not sent", "2", "Catalog search", "3", "Report error");
+		assertEquals(3, full.getAdded());
+
+		// 1 is unchanged, 2 changed, 4 is new and 3 is missing: it stays unless missing tickets are deleted
+		final IndexIngester delta = ingest(dir, true, false, "1", "Email reminder not sent", "2", "Catalog search is slow", "4", "Wizard");
+		assertEquals(1, delta.getAdded());
+		assertEquals(1, delta.getUpdated());
+		assertEquals(1, delta.getUnchanged());
+		assertEquals(0, delta.getDeleted());
+		assertEquals(4, getNumDocs(dir));
+		// the old revision of 2 is gone
+		assertEquals(1, getDocFreq(dir, "Subject", "search"));
+		assertEquals(1, getDocFreq(dir, "Subject", "slow"));
+
+		final IndexIngester export = ingest(dir, true, true, "1", "Email reminder not sent", "2", "Catalog search is slow");
+		assertEquals(2, export.getUnchanged());
+		assertEquals(2, export.getDeleted());
+		assertEquals(2, getNumDocs(dir));
+		assertEquals(0, getDocFreq(dir, SearchEngineUtils.KEY_FIELD, "3"));
+	}
+
+	@Test
+	public void shouldRebuildAnIndexWithoutKeysOnce() throws Exception {
+
+		final Directory dir = TestIndex.newDirectory();
+		final IndexWriter writer = newWriter(dir);
+		for (final String subject : new String[] { "Email reminder not sent", "Catalog search" }) {
+			final Document doc = new Document();
+			doc.add(new TextField("Subject", subject, Field.Store.YES));
+			writer.addDocument(doc);
+		}
+		writer.close();
+
+		final IndexIngester rebuild = ingest(dir, true, false, "1", "Email reminder not sent", "2", "Catalog search");
+		assertEquals(2, rebuild.getAdded());
+		assertEquals(0, rebuild.getUnchanged());
+		assertEquals(2, getNumDocs(dir));
+
+		final IndexIngester next = ingest(dir, true, false, "1", "Email reminder not sent", "2", "Catalog search");
+		assertEquals(0, next.getAdded());
+		assertEquals(2, next.getUnchanged());
+	}
+
+	/**
+	 * @param rows
+	 *            : id and subject of each row
+	 */
+	private static IndexIngester ingest(final Directory dir, final boolean incremental, final boolean deleteMissing,
+	        final String... rows) throws IOException {
+
+		final IndexIngester ingester = new IndexIngester(newWriter(dir), incremental);
+		ingester.setDeleteMissing(deleteMissing);
+		for (int i = 0; i < rows.length; i += 2) {
+			ingester.add(FIELDS, Arrays.asList(rows[i], rows[i + 1]));
+		}
+		ingester.close();
+		return ingester;
+	}
+
+	private static IndexWriter newWriter(final Directory dir) throws IOException {
+
+		return new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_46, new StandardAnalyzer(Version.LUCENE_46)));
+	}
+
+	private static int getNumDocs(final Directory dir) throws IOException {
+
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			return reader.numDocs();
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static int getDocFreq(final Directory dir, final String field, final String text) throws IOException {
+
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			return reader.docFreq(new Term(field, text));
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
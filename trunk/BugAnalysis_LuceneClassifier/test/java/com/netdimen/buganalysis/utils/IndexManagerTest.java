@@ -0,0 +1,148 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.netdimen.buganalysis.config.Config;
+
+public class IndexManagerTest {
+
+	/**
+	 * Build a generation of numDocs documents.
+	 */
+	private static File build(final int numDocs) throws IOException {
+
+		final File generation = IndexManager.newGeneration();
+		final FSDirectory dir = FSDirectory.open(generation);
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_46, new StandardAnalyzer(Version.LUCENE_46)));
+		for (int i = 0; i < numDocs; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField(SearchEngineUtils.ID_FIELD, String.valueOf(i), Field.Store.YES));
+			writer.addDocument(doc);
+		}
+		writer.close();
+		dir.close();
+		return generation;
+	}
+
+	private static File useTempRoot() throws IOException {
+
+		final File root = Files.createTempDirectory("index").toFile();
+		IndexManager.setRoot(root);
+		return root;
+	}
+
+	private static void restoreRoot(final File root) {
+
+		IndexManager.setRoot(new File(Config.directoryPath));
+		FileUtils.deleteQuietly(root);
+	}
+
+	private static int numDocs() throws IOException {
+
+		final IndexSearcher searcher = IndexManager.acquire();
+		try {
+			return searcher.getIndexReader().numDocs();
+		}
+		finally {
+			IndexManager.release(searcher);
+		}
+	}
+
+	@Test
+	public void shouldKeepAcquiredSearcherAcrossPublish() throws Exception {
+
+		final File root = useTempRoot();
+		try {
+			final File gen1 = build(1);
+			assertEquals("gen_1", gen1.getName());
+			assertEquals(root, IndexManager.getIndexDirectory());
+			IndexManager.publish(gen1);
+			assertEquals(gen1, IndexManager.getIndexDirectory());
+
+			final IndexSearcher searcher = IndexManager.acquire();
+			try {
+				IndexManager.publish(build(2));
+				assertEquals(2, numDocs());
+				// gen_1 is deleted by this one
+				IndexManager.publish(build(3));
+				assertFalse(gen1.exists());
+				assertEquals(3, numDocs());
+
+				assertEquals(1, searcher.getIndexReader().numDocs());
+				assertEquals(1, searcher.search(new TermQuery(new Term(SearchEngineUtils.ID_FIELD, "0")), 10).totalHits);
+			}
+			finally {
+				IndexManager.release(searcher);
+			}
+		}
+		finally {
+			restoreRoot(root);
+		}
+	}
+
+	@Test
+	public void shouldRollBackToPreviousGeneration() throws Exception {
+
+		final File root = useTempRoot();
+		try {
+			final File gen1 = build(1);
+			IndexManager.publish(gen1);
+			assertFalse(IndexManager.rollback());
+
+			final File gen2 = build(2);
+			IndexManager.publish(gen2);
+			assertEquals(2, numDocs());
+
+			assertTrue(IndexManager.rollback());
+			assertEquals(gen1, IndexManager.getIndexDirectory());
+			assertEquals(1, numDocs());
+
+			// a second rollback rolls forward
+			assertTrue(IndexManager.rollback());
+			assertEquals(gen2, IndexManager.getIndexDirectory());
+			assertEquals(2, numDocs());
+		}
+		finally {
+			restoreRoot(root);
+		}
+	}
+
+	@Test
+	public void shouldOpenIndexOnceItExists() throws Exception {
+
+		final File root = useTempRoot();
+		try {
+			try {
+				IndexManager.acquire();
+				fail("no index yet");
+			}
+			catch (IOException e) {
+				// expected
+			}
+
+			IndexManager.publish(build(4));
+			assertEquals(4, numDocs());
+		}
+		finally {
+			restoreRoot(root);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.junit.Test;
+
+public class KMeansClusteringTest {
+
+	@Test
+	public void shouldSeparateTopics() throws Exception {
+
+		// even documents are about e-mail reminders, odd ones about catalog search, one has no terms
+		final String[] subjects = new String[3000];
+		for (int i = 0; i < subjects.length; i++) {
+			if (i == 7) {
+				subjects[i] = "";
+			} else if (i % 2 == 0) {
+				subjects[i] = "email reminder template " + (i % 3 == 0 ? "html" : "sent") + " word" + i % 40;
+			} else {
+				subjects[i] = "catalog search price " + (i % 3 == 0 ? "wrong" : "results") + " word" + i % 40;
+			}
+		}
+
+		final DirectoryReader reader = TestIndex.open(subjects);
+		final File file = File.createTempFile("tfidf", ".model");
+		try {
+			MappedTfIdfModel.write(TfIdfModel.build(reader, "Subject"), reader.getVersion(), file);
+			final MappedTfIdfModel model = MappedTfIdfModel.open(file);
+
+			final KMeansClustering sequential = KMeansClustering.cluster(model, 2, 20, 42, 1);
+			assertEquals(2, sequential.getNumClusters());
+			assertEquals(-1, sequential.getAssignment(7));
+			final int email = sequential.getAssignment(0);
+			final int catalog = sequential.getAssignment(1);
+			assertTrue(email != catalog);
+			for (int row = 0; row < model.getNumRows(); row++) {
+				if (row != 7) {
+					assertEquals(row % 2 == 0 ? email : catalog, sequential.getAssignment(row));
+					assertTrue(sequential.getSimilarity(row) > 0);
+				}
+			}
+			assertEquals(1500, sequential.getClusterSize(email));
+			assertEquals(1499, sequential.getClusterSize(catalog));
+			assertTrue(sequential.getTopTerms(email, 3).contains("email"));
+			assertTrue(sequential.getTopTerms(catalog, 3).contains("catalog"));
+
+			final KMeansClustering parallel = KMeansClustering.cluster(model, 2, 20, 42, 4);
+			assertEquals(sequential.getIterations(), parallel.getIterations());
+			for (int row = 0; row < model.getNumRows(); row++) {
+				assertEquals(sequential.getAssignment(row), parallel.getAssignment(row));
+				assertEquals(sequential.getSimilarity(row), parallel.getSimilarity(row), 0f);
+			}
+			assertEquals(sequential.getObjective(), parallel.getObjective(), 0.0);
+
+			// documents without terms stay unassigned even without iterations
+			assertEquals(-1, KMeansClustering.cluster(model, 2, 0, 42, 1).getAssignment(7));
+
+			// stopped by maxIterations: sizes are those of the last assignment
+			final KMeansClustering once = KMeansClustering.cluster(model, 2, 1, 42, 1);
+			final int[] sizes = new int[2];
+			for (int row = 0; row < model.getNumRows(); row++) {
+				if (once.getAssignment(row) >= 0) {
+					sizes[once.getAssignment(row)]++;
+				}
+			}
+			assertEquals(sizes[0], once.getClusterSize(0));
+			assertEquals(sizes[1], once.getClusterSize(1));
+		}
+		finally {
+			reader.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void shouldNotAskForMoreClustersThanDocuments() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("report error", "report error", "wizard");
+		final File file = File.createTempFile("tfidf", ".model");
+		try {
+			MappedTfIdfModel.write(TfIdfModel.build(reader, "Subject"), reader.getVersion(), file);
+			final KMeansClustering clustering = KMeansClustering.cluster(MappedTfIdfModel.open(file), 10, 20, 42, 1);
+			assertEquals(3, clustering.getNumClusters());
+			assertEquals(clustering.getAssignment(0), clustering.getAssignment(1));
+			assertTrue(clustering.getAssignment(0) != clustering.getAssignment(2));
+			assertEquals(1.0, clustering.getObjective(), 1e-6);
+		}
+		finally {
+			reader.close();
+			file.delete();
+		}
+	}
+}
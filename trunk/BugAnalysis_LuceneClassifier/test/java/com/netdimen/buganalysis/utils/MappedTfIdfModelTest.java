@@ -0,0 +1,52 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.junit.Test;
+
+public class MappedTfIdfModelTest {
+
+	@Test
+	public void shouldMapWhatWasBuilt() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("report error report", "catalog error", "wizard", "", "\u00fcberpr\u00fcfung report",
+		                                              "z\u00fcrich catalog");
+		final File file = File.createTempFile("tfidf", ".model");
+		try {
+			final TfIdfModel model = TfIdfModel.build(reader, "Subject");
+			MappedTfIdfModel.write(model, reader.getVersion(), file);
+			assertEquals(reader.getVersion(), MappedTfIdfModel.readIndexVersion(file));
+
+			final MappedTfIdfModel mapped = MappedTfIdfModel.open(file);
+			assertEquals(model.getNumTerms(), mapped.getNumTerms());
+			for (int id = 0; id < model.getNumTerms(); id++) {
+				assertEquals(model.getTerm(id), mapped.getTerm(id));
+				assertEquals(id, mapped.getTermId(model.getTerm(id)));
+				assertEquals(model.getDocFreq(id), mapped.getDocFreq(id));
+				assertEquals(model.getIdf(id), mapped.getIdf(id), 0f);
+			}
+			assertEquals(-1, mapped.getTermId("missing"));
+
+			final DocTermMatrix weights = model.getWeights();
+			assertEquals(weights.getNumRows(), mapped.getNumRows());
+			assertEquals(weights.getSize(), mapped.getSize());
+			for (int row = 0; row < weights.getNumRows(); row++) {
+				assertEquals(weights.getRowStart(row), mapped.getRowStart(row));
+				assertEquals(weights.getRowEnd(row), mapped.getRowEnd(row));
+				assertEquals(weights.getNorm(row), mapped.getNorm(row), 0.0);
+				for (int k = weights.getRowStart(row); k < weights.getRowEnd(row); k++) {
+					assertEquals(weights.getColumn(k), mapped.getColumn(k));
+					assertEquals(weights.getValue(k), mapped.getValue(k), 0f);
+				}
+			}
+			assertEquals(weights.cosine(0, 1), mapped.cosine(0, 1), 1e-12);
+		}
+		finally {
+			reader.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+public class MinHashLSHTest {
+
+	private static final String[] SUBJECTS = { "Report wizard error when exporting to Excel", // 0
+	                                          "Catalog search shows wrong price", // 1
+	                                          "Re: report wizard error when exporting to excel", // 2
+	                                          "Excel: exporting, when report wizard error", // 3
+	                                          "Session enrollment emails are not sent", // 4
+	                                          "Catalog search shows the wrong price", // 5, deleted
+	                                          "Catalog search shows wrong price", // 6
+	                                          "the and of" // 7, no signature
+	};
+
+	@Test
+	public void shouldGroupDocumentsSharingABucket() throws Exception {
+
+		final DirectoryReader reader = open(SUBJECTS, 5);
+		try {
+			final MinHashLSH lsh = new MinHashLSH(reader, "Subject", 16, 4);
+			assertEquals(1.0, lsh.getSimilarity(0, 3), 0.0);
+			assertTrue(Double.isNaN(lsh.getSimilarity(0, 7)));
+			final List<List<Integer>> groups = lsh.getCandidateGroups(0.5);
+			assertEquals(Arrays.asList(Arrays.asList(0, 2, 3), Arrays.asList(1, 6)), groups);
+			// identical documents only
+			assertEquals(Arrays.asList(Arrays.asList(0, 3), Arrays.asList(1, 6)), lsh.getCandidateGroups(1.0));
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldQueryMostSimilarFirst() throws Exception {
+
+		final DirectoryReader reader = open(SUBJECTS, 5);
+		try {
+			final MinHashLSH lsh = new MinHashLSH(reader, "Subject", 16, 4);
+			final List<Integer> docs = lsh.query("Error in the report wizard when exporting to Excel", 0.5);
+			assertEquals(Arrays.asList(0, 3, 2), docs);
+			assertEquals(Arrays.asList(1, 6), lsh.query("Catalog search shows wrong price", 0.5));
+			assertTrue(lsh.query("Unrelated title", 0.5).isEmpty());
+			assertTrue(lsh.query("the and of", 0.0).isEmpty());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldGroupManyIdenticalTitlesAtOnce() throws Exception {
+
+		final String[] subjects = new String[5000];
+		Arrays.fill(subjects, "Login fails");
+		final DirectoryReader reader = open(subjects);
+		try {
+			// every document is in the same bucket of every band
+			final List<List<Integer>> groups = new MinHashLSH(reader, "Subject", 16, 4).getCandidateGroups(0.5);
+			assertEquals(1, groups.size());
+			assertEquals(subjects.length, groups.get(0).size());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldRejectTooManyHashes() throws Exception {
+
+		final DirectoryReader reader = open(SUBJECTS);
+		try {
+			new MinHashLSH(reader, "Subject", 32, 5);
+			fail("more than " + MinHash.NUM_HASHES + " hashes");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Index subjects with their MinHash signatures, as the schema does for a "minhash" column.
+	 */
+	private static DirectoryReader open(final String[] subjects, final int... deletedDocs) throws Exception {
+
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_46, new StandardAnalyzer(Version.LUCENE_46)));
+		for (int i = 0; i < subjects.length; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField(SearchEngineUtils.ID_FIELD, String.valueOf(i), Field.Store.YES));
+			final int[] signature = MinHash.signature(subjects[i]);
+			if (signature != null) {
+				doc.add(new BinaryDocValuesField(MinHash.getField("Subject"), MinHash.toBytes(signature)));
+			}
+			writer.addDocument(doc);
+		}
+		for (final int doc : deletedDocs) {
+			writer.deleteDocuments(new Term(SearchEngineUtils.ID_FIELD, String.valueOf(doc)));
+		}
+		writer.close();
+		return DirectoryReader.open(dir);
+	}
+}
@@ -0,0 +1,31 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MinHashTest {
+
+	@Test
+	public void shouldEstimateJaccardSimilarity() {
+
+		final int[] a = MinHash.signature("Report wizard error when exporting to Excel");
+		final int[] b = MinHash.signature("Re: report wizard error when exporting to excel");
+		final int[] c = MinHash.signature("Session enrollment emails are not sent");
+
+		// same token set once stop words and case are analyzed away, apart from "re"
+		assertTrue(MinHash.similarity(a, b) > 0.6);
+		assertTrue(MinHash.similarity(a, c) < 0.2);
+		assertEquals(1.0, MinHash.similarity(a, MinHash.signature("Excel: exporting, when report wizard error")), 0.0);
+	}
+
+	@Test
+	public void shouldRoundTripThroughBytes() {
+
+		final int[] signature = MinHash.signature("Null pointer error in catalog editor");
+		final int[] decoded = new int[MinHash.NUM_HASHES];
+		assertTrue(MinHash.fromBytes(MinHash.toBytes(signature), decoded));
+		assertArrayEquals(signature, decoded);
+		assertNull(MinHash.signature("the and of"));
+	}
+}
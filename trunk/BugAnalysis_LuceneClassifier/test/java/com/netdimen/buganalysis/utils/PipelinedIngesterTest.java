@@ -0,0 +1,136 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class PipelinedIngesterTest {
+
+	private static final List<String> FIELDS = Arrays.asList(SearchEngineUtils.ID_FIELD, "Subject");
+
+	@Test
+	public void shouldIndexWhatOneThreadIndexes() throws Exception {
+
+		final Directory single = TestIndex.newDirectory();
+		final Directory pipelined = TestIndex.newDirectory();
+		final IndexIngester ingester = new IndexIngester(newWriter(single), false);
+		final IndexIngester pipeline = new PipelinedIngester(newWriter(pipelined), false, 4, 16);
+		for (int i = 0; i < 1000; i++) {
+			ingester.add(FIELDS, Arrays.asList(String.valueOf(i), "Reminder email " + i + " not sent"));
+			pipeline.add(FIELDS, Arrays.asList(String.valueOf(i), "Reminder email " + i + " not sent"));
+		}
+		ingester.close();
+		pipeline.close();
+		assertEquals(getTerms(single, SearchEngineUtils.REVISION_FIELD), getTerms(pipelined, SearchEngineUtils.REVISION_FIELD));
+		assertEquals(1000, getTerms(pipelined, SearchEngineUtils.REVISION_FIELD).size());
+	}
+
+	@Test
+	public void shouldKeepOneDocumentPerKeyAcrossWorkers() throws Exception {
+
+		final Directory dir = TestIndex.newDirectory();
+		final IndexIngester ingester = new IndexIngester(newWriter(dir), false);
+		for (int i = 0; i < 500; i++) {
+			ingester.add(FIELDS, Arrays.asList(String.valueOf(i), "Catalog search " + i));
+		}
+		ingester.close();
+
+		// every key twice in a row, so both rows of a new key are usually indexed by two workers at the same time
+		final IndexIngester pipeline = new PipelinedIngester(newWriter(dir), true, 4, 16);
+		for (int i = 0; i < 1000; i++) {
+			pipeline.add(FIELDS, Arrays.asList(String.valueOf(i), "Catalog search shows wrong price " + i));
+			pipeline.add(FIELDS, Arrays.asList(String.valueOf(i), "Catalog search shows no price " + i));
+		}
+		pipeline.close();
+
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			assertEquals(1000, reader.numDocs());
+			assertEquals(1000, getTerms(dir, SearchEngineUtils.KEY_FIELD).size());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldNotCommitWhenAWorkerFails() throws Exception {
+
+		final Directory dir = TestIndex.newDirectory();
+		final IndexIngester ingester = new IndexIngester(newWriter(dir), false);
+		for (int i = 0; i < 10; i++) {
+			ingester.add(FIELDS, Arrays.asList(String.valueOf(i), "Report error " + i));
+		}
+		ingester.close();
+		final Set<String> revisions = getTerms(dir, SearchEngineUtils.REVISION_FIELD);
+
+		final IndexIngester pipeline = new PipelinedIngester(newWriter(dir), false, 4, 16);
+		pipeline.add(FIELDS, Arrays.asList("10", "Wizard is slow"));
+		pipeline.add(new AbstractList<String>() {
+
+			@Override
+			public String get(final int index) {
+
+				throw new IllegalStateException("broken row");
+			}
+
+			@Override
+			public int size() {
+
+				return 2;
+			}
+		}, Arrays.asList("11", "Wizard hangs"));
+		try {
+			pipeline.close();
+			fail("worker failure");
+		}
+		catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		// the full run deleted everything and added a row, but none of it was committed
+		assertEquals(revisions, getTerms(dir, SearchEngineUtils.REVISION_FIELD));
+	}
+
+	private static IndexWriter newWriter(final Directory dir) throws IOException {
+
+		return new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_46, new StandardAnalyzer(Version.LUCENE_46)));
+	}
+
+	private static Set<String> getTerms(final Directory dir, final String field) throws IOException {
+
+		final Set<String> values = Sets.newHashSet();
+		final DirectoryReader reader = DirectoryReader.open(dir);
+		try {
+			final Terms terms = MultiFields.getTerms(reader, field);
+			final TermsEnum termsEnum = terms.iterator(null);
+			BytesRef bytesRef = null;
+			while ((bytesRef = termsEnum.next()) != null) {
+				if (termsEnum.docFreq() > 0) {
+					values.add(bytesRef.utf8ToString());
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return values;
+	}
+}
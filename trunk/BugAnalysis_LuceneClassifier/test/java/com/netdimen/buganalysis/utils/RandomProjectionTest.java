@@ -0,0 +1,62 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RandomProjectionTest {
+
+	@Test
+	public void shouldPreserveCosineSimilarity() {
+
+		final RandomProjection projection = new RandomProjection(256);
+		final Random random = new Random(42);
+		double error = 0;
+		final int trials = 200;
+		for (int t = 0; t < trials; t++) {
+			// two documents of 20 terms out of a vocabulary of 60 share about a third of their terms
+			final String[] terms1 = new String[20];
+			final String[] terms2 = new String[20];
+			final float[] weights1 = new float[20];
+			final float[] weights2 = new float[20];
+			final float[] dense1 = new float[60];
+			final float[] dense2 = new float[60];
+			for (int i = 0; i < 20; i++) {
+				final int term1 = random.nextInt(60);
+				final int term2 = random.nextInt(60);
+				terms1[i] = "term" + term1;
+				terms2[i] = "term" + term2;
+				weights1[i] = 1 + random.nextFloat();
+				weights2[i] = 1 + random.nextFloat();
+				dense1[term1] += weights1[i];
+				dense2[term2] += weights2[i];
+			}
+			DenseVectors.normalize(dense1, 0, 60);
+			DenseVectors.normalize(dense2, 0, 60);
+			double cosine = 0;
+			for (int d = 0; d < 60; d++) {
+				cosine += dense1[d] * dense2[d];
+			}
+
+			final float[] vector1 = projection.project(terms1, weights1);
+			final float[] vector2 = projection.project(terms2, weights2);
+			double projected = 0;
+			for (int d = 0; d < 256; d++) {
+				projected += vector1[d] * vector2[d];
+			}
+			error += Math.abs(cosine - projected);
+		}
+		assertTrue("mean error " + error / trials, error / trials < 0.08);
+	}
+
+	@Test
+	public void shouldProjectTheSameTermsTheSameWay() {
+
+		final float[] vector1 = new RandomProjection(128).project(new String[] { "report", "wizard" }, new float[] { 1f, 2f });
+		final float[] vector2 = new RandomProjection(128).project(new String[] { "wizard", "report" }, new float[] { 2f, 1f });
+		assertArrayEquals(vector1, vector2, 1e-6f);
+		assertArrayEquals(new float[128], new RandomProjection(128).project(new String[0], new float[0]), 0f);
+	}
+}
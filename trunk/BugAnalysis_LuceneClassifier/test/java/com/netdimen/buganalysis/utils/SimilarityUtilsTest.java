@@ -0,0 +1,100 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.junit.Test;
+
+public class SimilarityUtilsTest {
+
+	private static final String[] WORDS = { "login", "report", "export", "timeout", "course", "session", "upload", "crash", "error",
+	        "page" };
+
+	private static String[] randomSubjects(final int numDocs, final long seed) {
+
+		final Random random = new Random(seed);
+		final String[] subjects = new String[numDocs];
+		for (int i = 0; i < numDocs; i++) {
+			final StringBuilder subject = new StringBuilder();
+			for (int w = 0; w < 4; w++) {
+				subject.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			subjects[i] = subject.toString();
+		}
+		return subjects;
+	}
+
+	@Test
+	public void shouldComputeSameMatrixInTiles() throws Exception {
+
+		// 150 rows: two full tiles and a partial one
+		final DirectoryReader reader = TestIndex.open(randomSubjects(170, 42));
+		try {
+			final DocTermMatrix docs = DocTermMatrix.build(reader, TestIndex.FIELD, 150);
+			assertEquals(150, docs.getNumRows());
+			final double[][] sequential = SimilarityUtils.getSimilarityMatrix(docs, 1);
+			for (final int parallelism : new int[] { 2, 4 }) {
+				assertTrue(Arrays.deepEquals(sequential, SimilarityUtils.getSimilarityMatrix(docs, parallelism)));
+			}
+
+			for (int i = 0; i < docs.getNumRows(); i++) {
+				for (int j = 0; j < docs.getNumRows(); j++) {
+					assertEquals(j > i ? docs.cosine(i, j) : 0.0, sequential[i][j], 0.0);
+				}
+			}
+			assertTrue(sequential[0][149] > 0);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldFindSimilarBugsWithoutTicketItself() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("login page error", "login page error", "login timeout", "export report", "course list");
+		try {
+			final IndexSearcher searcher = new IndexSearcher(reader);
+			final TopDocs docs = SimilarityUtils.getSimilarBugs(searcher, TestIndex.FIELD, "0", 10);
+			assertEquals(2, docs.totalHits);
+			assertEquals(1, docs.scoreDocs[0].doc);
+			assertEquals(2, docs.scoreDocs[1].doc);
+			for (final ScoreDoc doc : docs.scoreDocs) {
+				assertFalse(doc.doc == 0);
+			}
+
+			assertEquals(2, SimilarityUtils.getSimilarBugs(searcher, TestIndex.FIELD, "2", 10).totalHits);
+			assertEquals(1, SimilarityUtils.getSimilarBugs(searcher, TestIndex.FIELD, "0", 1).scoreDocs.length);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void shouldReturnNullForUnknownTicket() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("login page error", "login timeout");
+		try {
+			assertNull(SimilarityUtils.getSimilarBugs(new IndexSearcher(reader), TestIndex.FIELD, "99", 10));
+		}
+		finally {
+			reader.close();
+		}
+
+		final DirectoryReader noVectors = TestIndex.open(TextField.TYPE_STORED, new String[] { "login page error", "login timeout" });
+		try {
+			assertNull(SimilarityUtils.getSimilarBugs(new IndexSearcher(noVectors), TestIndex.FIELD, "0", 10));
+		}
+		finally {
+			noVectors.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.netdimen.buganalysis.utils;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * In-memory index of bug subjects for tests: document i has the subject i in {@link #FIELD} and i as its
+ * {@link SearchEngineUtils#ID_FIELD} and {@link SearchEngineUtils#KEY_FIELD}.
+ */
+final class TestIndex {
+
+	static final String FIELD = "Subject";
+
+	/** analyzed, stored and with term vectors, as the schema indexes the subject */
+	static final FieldType TERM_VECTORS = new FieldType(TextField.TYPE_STORED);
+
+	static {
+		TERM_VECTORS.setStoreTermVectors(true);
+		TERM_VECTORS.freeze();
+	}
+
+	private TestIndex() {
+
+	}
+
+	/**
+	 * An empty RAMDirectory that keeps its files when it is closed, as an {@link IndexIngester} closes its directory.
+	 */
+	static RAMDirectory newDirectory() {
+
+		return new RAMDirectory() {
+
+			@Override
+			public void close() {
+
+				// the next writer or reader opens it again
+			}
+		};
+	}
+
+	/**
+	 * Index subjects with {@link #TERM_VECTORS}.
+	 */
+	static DirectoryReader open(final String... subjects) throws IOException {
+
+		return open(TERM_VECTORS, subjects);
+	}
+
+	/**
+	 * @param type
+	 *            : of the subject field
+	 * @param subjects
+	 * @param deletedDocs
+	 *            : documents to delete again
+	 * @return a reader, the caller closes it
+	 * @throws IOException
+	 */
+	static DirectoryReader open(final FieldType type, final String[] subjects, final int... deletedDocs) throws IOException {
+
+		final RAMDirectory dir = new RAMDirectory();
+		final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_46, new StandardAnalyzer(Version.LUCENE_46)));
+		for (int i = 0; i < subjects.length; i++) {
+			final Document doc = new Document();
+			doc.add(new StringField(SearchEngineUtils.KEY_FIELD, String.valueOf(i), Field.Store.NO));
+			doc.add(new StringField(SearchEngineUtils.ID_FIELD, String.valueOf(i), Field.Store.YES));
+			doc.add(new Field(FIELD, subjects[i], type));
+			writer.addDocument(doc);
+		}
+		for (final int doc : deletedDocs) {
+			writer.deleteDocuments(new Term(SearchEngineUtils.ID_FIELD, String.valueOf(doc)));
+		}
+		writer.close();
+		return DirectoryReader.open(dir);
+	}
+}
@@ -0,0 +1,34 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.junit.Test;
+
+public class TfIdfModelTest {
+
+	@Test
+	public void shouldWeightTermsOfOneFieldOnly() throws Exception {
+
+		final DirectoryReader reader = TestIndex.open("report error report", "catalog error", "wizard");
+		try {
+			final TfIdfModel model = TfIdfModel.build(reader, "Subject");
+			assertEquals(4, model.getNumTerms());
+			// a term of the id field
+			assertEquals(-1, model.getTermId("1"));
+
+			final DefaultSimilarity similarity = new DefaultSimilarity();
+			final int report = model.getTermId("report");
+			final int error = model.getTermId("error");
+			assertEquals(2, model.getDocFreq(error));
+			assertEquals(similarity.idf(1, 3), model.getIdf(report), 0f);
+			assertEquals(similarity.tf(2) * similarity.idf(1, 3), model.getWeight(0, report), 1e-6f);
+			assertEquals(similarity.tf(1) * similarity.idf(2, 3), model.getWeight(1, error), 1e-6f);
+			assertEquals(0f, model.getWeight(2, error), 0f);
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
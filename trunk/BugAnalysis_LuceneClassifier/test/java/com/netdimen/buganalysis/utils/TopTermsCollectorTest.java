@@ -0,0 +1,45 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class TopTermsCollectorTest {
+
+	private static TermFrequencyObject collect(final int k, final Object... termsAndFreqs) {
+
+		final TopTermsCollector collector = new TopTermsCollector(k);
+		final BytesRef reused = new BytesRef();
+		for (int i = 0; i < termsAndFreqs.length; i += 2) {
+			reused.copyChars((String) termsAndFreqs[i]);
+			collector.collect(reused, (Integer) termsAndFreqs[i + 1]);
+		}
+		return collector.toTermFrequencyObject();
+	}
+
+	@Test
+	public void shouldKeepMostFrequentTerms() {
+
+		final TermFrequencyObject obj = collect(3, "a", 1, "b", 7, "c", 3, "d", 9, "e", 2, "f", 5);
+		assertEquals(Arrays.asList("d", "b", "f"), obj.getTermList());
+		assertEquals(Integer.valueOf(7), obj.getTermFreqMap().get("b"));
+		assertEquals(3, obj.getTermFreqMap().size());
+	}
+
+	@Test
+	public void shouldPreferEarlierTermOnTies() {
+
+		final TermFrequencyObject obj = collect(2, "a", 4, "b", 4, "c", 4, "d", 5);
+		assertEquals(Arrays.asList("d", "a"), obj.getTermList());
+	}
+
+	@Test
+	public void shouldReturnAllTermsIfFewerThanK() {
+
+		assertEquals(Arrays.asList("b", "a"), collect(10, "a", 1, "b", 2).getTermList());
+		assertTrue(collect(0, "a", 1).getTermList().isEmpty());
+	}
+}
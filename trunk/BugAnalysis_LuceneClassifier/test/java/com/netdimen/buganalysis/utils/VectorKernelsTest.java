@@ -0,0 +1,55 @@
+package com.netdimen.buganalysis.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VectorKernelsTest {
+
+	private static double expectedDot(final float[] a, final float[] b) {
+
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += (double) a[i] * b[i];
+		}
+		return sum;
+	}
+
+	@Test
+	public void shouldAgreeWithScalarKernels() {
+
+		final VectorKernels scalar = VectorKernels.select("scalar");
+		final VectorKernels unrolled = VectorKernels.select("unrolled");
+		assertEquals("scalar", scalar.getName());
+		assertEquals("unrolled", unrolled.getName());
+
+		final Random random = new Random(7);
+		// lengths that are not a multiple of the unrolling
+		for (final int dimensions : new int[] { 1, 7, 8, 13, 256 }) {
+			final int numRows = 5;
+			final float[] matrix = new float[numRows * dimensions];
+			for (int i = 0; i < matrix.length; i++) {
+				matrix[i] = random.nextFloat() - 0.5f;
+			}
+			final float[] query = new float[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				query[d] = random.nextFloat() - 0.5f;
+			}
+
+			final float[] expected = new float[numRows];
+			final float[] scores = new float[numRows];
+			scalar.dots(matrix, dimensions, 0, numRows, query, expected);
+			unrolled.dots(matrix, dimensions, 1, numRows, query, scores);
+			for (int row = 1; row < numRows; row++) {
+				assertEquals(expected[row], scores[row - 1], 1e-5f);
+				assertEquals(expected[row], unrolled.dot(matrix, row * dimensions, query, 0, dimensions), 1e-5f);
+			}
+			assertEquals(scalar.norm(query, 0, dimensions), unrolled.norm(query, 0, dimensions), 1e-5f);
+			assertEquals((float) Math.sqrt(expectedDot(query, query)), scalar.norm(query, 0, dimensions), 1e-5f);
+			DenseVectors.normalize(query, 0, dimensions);
+			assertEquals(1f, unrolled.norm(query, 0, dimensions), 1e-5f);
+		}
+	}
+}